@@ -1,6 +1,7 @@
 #include <jni.h>
 #include <string.h>
 #include <stdio.h>
+#include <stdlib.h>
 #include <android/log.h>
 #include <android/bitmap.h>
 
@@ -53,15 +54,253 @@ static unsigned char const qmblur_shr[255] =
         24, 24, 24, 24, 24, 24, 24, 24, 24, 24, 24, 24, 24, 24, 24
 };
 
+static unsigned char const qmblur_bayer[16] =
+{
+        0, 8, 2, 10, 12, 4, 14, 6, 3, 11, 1, 9, 15, 7, 13, 5
+};
+
+#define QMBLUR_HISTOGRAM_BINS 16
+// Sums of r, g, b and luminance, the pixel count, then the luminance histogram
+#define QMBLUR_STATS_SIZE (5 + QMBLUR_HISTOGRAM_BINS)
+
+/**
+ * What the last pass does to a pixel as it writes it: an optional color matrix, then
+ * ordered dither grain, then a tint blended on top. Color statistics, when collected,
+ * are taken before the tint.
+ */
+typedef struct
+{
+    // Rows of r, g, b and alpha weights in 1/4096, alpha carries the offset
+    int matrix[12];
+    int hasMatrix;
+    int grain;
+    // Buffer position of the first pixel, keeps the grain pattern in place for regions
+    unsigned int originX;
+    unsigned int originY;
+    unsigned int tintA;
+    unsigned int tintR;
+    unsigned int tintG;
+    unsigned int tintB;
+    long long* stats;
+} QmOutput;
+
+/**
+ * @return whether there is anything to apply
+ */
+static int qmoutputInit(QmOutput* out, unsigned int tint, const int* matrix, int grain,
+                        unsigned int originX, unsigned int originY, long long* stats)
+{
+    out->stats = stats;
+    out->hasMatrix = matrix != NULL;
+    if (matrix != NULL) memcpy(out->matrix, matrix, sizeof(out->matrix));
+    out->grain = grain;
+    out->originX = originX;
+    out->originY = originY;
+    // Premultiplied once here
+    out->tintA = tint >> 24;
+    out->tintR = (((tint >> 16) & 0xFF) * out->tintA + 127) / 255;
+    out->tintG = (((tint >> 8) & 0xFF) * out->tintA + 127) / 255;
+    out->tintB = ((tint & 0xFF) * out->tintA + 127) / 255;
+    return out->hasMatrix || out->grain > 0 || out->tintA > 0 || stats != NULL;
+}
+
+static inline int qmoutputChannel(const int* row, int r, int g, int b, int alpha, int dither)
+{
+    int v = ((row[0] * r + row[1] * g + row[2] * b + row[3] * alpha + 2048) >> 12) + dither;
+    return v < 0 ? 0 : v > alpha ? alpha : v;
+}
+
+/**
+ * Writes the premultiplied pixel (r, g, b, alpha) at buffer position (x, y) relative
+ * to the origin.
+ */
+static void qmoutputWrite(const QmOutput* out, unsigned char* p,
+                          int r, int g, int b, int alpha, unsigned int x, unsigned int y)
+{
+    int dither = 0;
+    if (out->grain > 0)
+    {
+        int level = qmblur_bayer[((out->originY + y) & 3) * 4 + ((out->originX + x) & 3)];
+        dither = (level * 2 - 15) * out->grain * alpha / (16 * 255);
+    }
+    if (out->hasMatrix)
+    {
+        int mr = qmoutputChannel(out->matrix, r, g, b, alpha, dither);
+        int mg = qmoutputChannel(out->matrix + 4, r, g, b, alpha, dither);
+        b = qmoutputChannel(out->matrix + 8, r, g, b, alpha, dither);
+        r = mr;
+        g = mg;
+    }
+    else if (dither != 0)
+    {
+        r = clamp(r + dither, 0, alpha);
+        g = clamp(g + dither, 0, alpha);
+        b = clamp(b + dither, 0, alpha);
+    }
+    if (out->stats != NULL)
+    {
+        // Rec. 709 weights in 1/256
+        int luminance = (r * 54 + g * 183 + b * 19) >> 8;
+        long long* stats = out->stats;
+        stats[0] += r;
+        stats[1] += g;
+        stats[2] += b;
+        stats[3] += luminance;
+        stats[4]++;
+        stats[5 + luminance * QMBLUR_HISTOGRAM_BINS / 256]++;
+    }
+    if (out->tintA > 0)
+    {
+        unsigned int inv = 255 - out->tintA;
+        r = out->tintR + (r * inv + 127) / 255;
+        g = out->tintG + (g * inv + 127) / 255;
+        b = out->tintB + (b * inv + 127) / 255;
+        alpha = out->tintA + (alpha * inv + 127) / 255;
+    }
+    p[0] = r;
+    p[1] = g;
+    p[2] = b;
+    p[3] = alpha;
+}
+
+/**
+ * Horizontal pass over one row. in and out may be the same row, alpha is copied
+ * from in unchanged.
+ */
+static void qmblurRow(const unsigned char* in,
+                      unsigned char* out,
+                      unsigned int w,
+                      unsigned int radius,
+                      unsigned char* qm)
+{
+    unsigned int x, xp, i;
+    unsigned int sp;
+    unsigned int qm_start;
+    unsigned char* qm_ptr;
+
+    const unsigned char* src_ptr;
+    const unsigned char* alpha_ptr;
+    unsigned char* dst_ptr;
+
+    unsigned long sum_r;
+    unsigned long sum_g;
+    unsigned long sum_b;
+    unsigned long sum_in_r;
+    unsigned long sum_in_g;
+    unsigned long sum_in_b;
+    unsigned long sum_out_r;
+    unsigned long sum_out_g;
+    unsigned long sum_out_b;
+
+    unsigned int wm = w - 1;
+    unsigned int div = (radius * 2) + 1;
+    unsigned int mul_sum = qmblur_mul[radius];
+    unsigned char shr_sum = qmblur_shr[radius];
+
+    sum_r = sum_g = sum_b =
+    sum_in_r = sum_in_g = sum_in_b =
+    sum_out_r = sum_out_g = sum_out_b = 0;
+
+    src_ptr = in;
+
+    for(i = 0; i <= radius; i++)
+    {
+        qm_ptr    = &qm[ 3 * i ];
+        qm_ptr[0] = src_ptr[0];
+        qm_ptr[1] = src_ptr[1];
+        qm_ptr[2] = src_ptr[2];
+        sum_r += src_ptr[0] * (i + 1);
+        sum_g += src_ptr[1] * (i + 1);
+        sum_b += src_ptr[2] * (i + 1);
+        sum_out_r += src_ptr[0];
+        sum_out_g += src_ptr[1];
+        sum_out_b += src_ptr[2];
+    }
+
+    for(i = 1; i <= radius; i++)
+    {
+        if (i <= wm) src_ptr += 4;
+        qm_ptr = &qm[ 3 * (i + radius) ];
+        qm_ptr[0] = src_ptr[0];
+        qm_ptr[1] = src_ptr[1];
+        qm_ptr[2] = src_ptr[2];
+        sum_r += src_ptr[0] * (radius + 1 - i);
+        sum_g += src_ptr[1] * (radius + 1 - i);
+        sum_b += src_ptr[2] * (radius + 1 - i);
+        sum_in_r += src_ptr[0];
+        sum_in_g += src_ptr[1];
+        sum_in_b += src_ptr[2];
+    }
+
+    sp = radius;
+    xp = radius;
+    if (xp > wm) xp = wm;
+    src_ptr = in + 4 * xp;
+    dst_ptr = out;
+    alpha_ptr = in + 3;
+    for(x = 0; x < w; x++)
+    {
+        int alpha = *alpha_ptr;
+        alpha_ptr += 4;
+        dst_ptr[0] = clamp((sum_r * mul_sum) >> shr_sum, 0, alpha);
+        dst_ptr[1] = clamp((sum_g * mul_sum) >> shr_sum, 0, alpha);
+        dst_ptr[2] = clamp((sum_b * mul_sum) >> shr_sum, 0, alpha);
+        dst_ptr[3] = alpha;
+        dst_ptr += 4;
+
+        sum_r -= sum_out_r;
+        sum_g -= sum_out_g;
+        sum_b -= sum_out_b;
+
+        qm_start = sp + div - radius;
+        if (qm_start >= div) qm_start -= div;
+        qm_ptr = &qm[3 * qm_start];
+
+        sum_out_r -= qm_ptr[0];
+        sum_out_g -= qm_ptr[1];
+        sum_out_b -= qm_ptr[2];
+
+        if(xp < wm)
+        {
+            src_ptr += 4;
+            ++xp;
+        }
+
+        qm_ptr[0] = src_ptr[0];
+        qm_ptr[1] = src_ptr[1];
+        qm_ptr[2] = src_ptr[2];
+
+        sum_in_r += src_ptr[0];
+        sum_in_g += src_ptr[1];
+        sum_in_b += src_ptr[2];
+        sum_r    += sum_in_r;
+        sum_g    += sum_in_g;
+        sum_b    += sum_in_b;
+
+        ++sp;
+        if (sp >= div) sp = 0;
+        qm_ptr = &qm[sp*3];
+
+        sum_out_r += qm_ptr[0];
+        sum_out_g += qm_ptr[1];
+        sum_out_b += qm_ptr[2];
+        sum_in_r  -= qm_ptr[0];
+        sum_in_g  -= qm_ptr[1];
+        sum_in_b  -= qm_ptr[2];
+    }
+}
+
 void qmblurJob(unsigned char* src,
                   unsigned int w,
                   unsigned int h,
+                  unsigned int stride,
                   unsigned int radius,
                   int cores,
                   int core,
-                  int step)
+                  int step,
+                  const QmOutput* out)
 {
-    unsigned int x, y, xp, yp, i;
+    unsigned int x, y, yp, i;
     unsigned int sp;
     unsigned int qm_start;
     unsigned char* qm_ptr;
@@ -79,9 +318,8 @@ void qmblurJob(unsigned char* src,
     unsigned long sum_out_g;
     unsigned long sum_out_b;
 
-    unsigned int wm = w - 1;
     unsigned int hm = h - 1;
-    unsigned int w4 = w * 4;
+    unsigned int w4 = stride;
     unsigned int div = (radius * 2) + 1;
     unsigned int mul_sum = qmblur_mul[radius];
     unsigned char shr_sum = qmblur_shr[radius];
@@ -94,95 +332,7 @@ void qmblurJob(unsigned char* src,
 
         for(y = minY; y < maxY; y++)
         {
-            sum_r = sum_g = sum_b =
-            sum_in_r = sum_in_g = sum_in_b =
-            sum_out_r = sum_out_g = sum_out_b = 0;
-
-            src_ptr = src + w4 * y;
-
-            for(i = 0; i <= radius; i++)
-            {
-                qm_ptr    = &qm[ 3 * i ];
-                qm_ptr[0] = src_ptr[0];
-                qm_ptr[1] = src_ptr[1];
-                qm_ptr[2] = src_ptr[2];
-                sum_r += src_ptr[0] * (i + 1);
-                sum_g += src_ptr[1] * (i + 1);
-                sum_b += src_ptr[2] * (i + 1);
-                sum_out_r += src_ptr[0];
-                sum_out_g += src_ptr[1];
-                sum_out_b += src_ptr[2];
-            }
-
-            for(i = 1; i <= radius; i++)
-            {
-                if (i <= wm) src_ptr += 4;
-                qm_ptr = &qm[ 3 * (i + radius) ];
-                qm_ptr[0] = src_ptr[0];
-                qm_ptr[1] = src_ptr[1];
-                qm_ptr[2] = src_ptr[2];
-                sum_r += src_ptr[0] * (radius + 1 - i);
-                sum_g += src_ptr[1] * (radius + 1 - i);
-                sum_b += src_ptr[2] * (radius + 1 - i);
-                sum_in_r += src_ptr[0];
-                sum_in_g += src_ptr[1];
-                sum_in_b += src_ptr[2];
-            }
-
-            sp = radius;
-            xp = radius;
-            if (xp > wm) xp = wm;
-            src_ptr = src + 4 * (xp + y * w);
-            dst_ptr = src + y * w4;
-            for(x = 0; x < w; x++)
-            {
-                int alpha = dst_ptr[3];
-                dst_ptr[0] = clamp((sum_r * mul_sum) >> shr_sum, 0, alpha);
-                dst_ptr[1] = clamp((sum_g * mul_sum) >> shr_sum, 0, alpha);
-                dst_ptr[2] = clamp((sum_b * mul_sum) >> shr_sum, 0, alpha);
-                dst_ptr += 4;
-
-                sum_r -= sum_out_r;
-                sum_g -= sum_out_g;
-                sum_b -= sum_out_b;
-
-                qm_start = sp + div - radius;
-                if (qm_start >= div) qm_start -= div;
-                qm_ptr = &qm[3 * qm_start];
-
-                sum_out_r -= qm_ptr[0];
-                sum_out_g -= qm_ptr[1];
-                sum_out_b -= qm_ptr[2];
-
-                if(xp < wm)
-                {
-                    src_ptr += 4;
-                    ++xp;
-                }
-
-                qm_ptr[0] = src_ptr[0];
-                qm_ptr[1] = src_ptr[1];
-                qm_ptr[2] = src_ptr[2];
-
-                sum_in_r += src_ptr[0];
-                sum_in_g += src_ptr[1];
-                sum_in_b += src_ptr[2];
-                sum_r    += sum_in_r;
-                sum_g    += sum_in_g;
-                sum_b    += sum_in_b;
-
-                ++sp;
-                if (sp >= div) sp = 0;
-                qm_ptr = &qm[sp*3];
-
-                sum_out_r += qm_ptr[0];
-                sum_out_g += qm_ptr[1];
-                sum_out_b += qm_ptr[2];
-                sum_in_r  -= qm_ptr[0];
-                sum_in_g  -= qm_ptr[1];
-                sum_in_b  -= qm_ptr[2];
-            }
-
+            qmblurRow(src + w4 * y, src + w4 * y, w, radius, qm);
         }
     }
 
@@ -230,14 +380,25 @@ void qmblurJob(unsigned char* src,
             sp = radius;
             yp = radius;
             if (yp > hm) yp = hm;
-            src_ptr = src + 4 * (x + yp * w);
+            src_ptr = src + 4 * x + yp * w4;
             dst_ptr = src + 4 * x;
             for(y = 0; y < h; y++)
             {
                 int alpha = dst_ptr[3];
-                dst_ptr[0] = clamp((sum_r * mul_sum) >> shr_sum, 0, alpha);
-                dst_ptr[1] = clamp((sum_g * mul_sum) >> shr_sum, 0, alpha);
-                dst_ptr[2] = clamp((sum_b * mul_sum) >> shr_sum, 0, alpha);
+                if (out == NULL)
+                {
+                    dst_ptr[0] = clamp((sum_r * mul_sum) >> shr_sum, 0, alpha);
+                    dst_ptr[1] = clamp((sum_g * mul_sum) >> shr_sum, 0, alpha);
+                    dst_ptr[2] = clamp((sum_b * mul_sum) >> shr_sum, 0, alpha);
+                }
+                else
+                {
+                    qmoutputWrite(out, dst_ptr,
+                                  clamp((sum_r * mul_sum) >> shr_sum, 0, alpha),
+                                  clamp((sum_g * mul_sum) >> shr_sum, 0, alpha),
+                                  clamp((sum_b * mul_sum) >> shr_sum, 0, alpha),
+                                  alpha, x, y);
+                }
                 dst_ptr += w4;
 
                 sum_r -= sum_out_r;
@@ -284,7 +445,197 @@ void qmblurJob(unsigned char* src,
     }
 }
 
-JNIEXPORT void JNICALL Java_com_qmdeve_blurview_BlurNative_blur(JNIEnv* env, jclass clzz, jobject bitmapOut, jint radius, jint threadCount, jint threadIndex, jint round) {
+/**
+ * First pass of a downsampled blur. Every output row is area averaged from factor x factor
+ * blocks of the source into a row sized line and blurred horizontally straight into the
+ * output, so the reduced image is never written out before the vertical pass.
+ */
+void qmblurReduceJob(const unsigned char* src,
+                     unsigned int srcW,
+                     unsigned int srcH,
+                     unsigned int srcStride,
+                     unsigned char* dst,
+                     unsigned int w,
+                     unsigned int h,
+                     unsigned int dstStride,
+                     unsigned int factor,
+                     unsigned int radius,
+                     int cores,
+                     int core,
+                     unsigned char* line)
+{
+    unsigned int x, y, bx, by, c;
+    unsigned int div = (radius * 2) + 1;
+    unsigned char qm[div * 3];
+
+    int minY = core * h / cores;
+    int maxY = (core + 1) * h / cores;
+
+    for (y = minY; y < (unsigned int) maxY; y++)
+    {
+        unsigned int y0 = y * factor;
+        unsigned int y1 = y0 + factor;
+        if (y1 > srcH) y1 = srcH;
+
+        for (x = 0; x < w; x++)
+        {
+            unsigned int x0 = x * factor;
+            unsigned int x1 = x0 + factor;
+            if (x1 > srcW) x1 = srcW;
+
+            unsigned int sum[4] = {0, 0, 0, 0};
+            unsigned int count = (x1 - x0) * (y1 - y0);
+            for (by = y0; by < y1; by++)
+            {
+                const unsigned char* p = src + by * srcStride + x0 * 4;
+                for (bx = x0; bx < x1; bx++, p += 4)
+                {
+                    sum[0] += p[0];
+                    sum[1] += p[1];
+                    sum[2] += p[2];
+                    sum[3] += p[3];
+                }
+            }
+            for (c = 0; c < 4; c++)
+            {
+                line[x * 4 + c] = (unsigned char) ((sum[c] + count / 2) / count);
+            }
+        }
+
+        qmblurRow(line, dst + y * dstStride, w, radius, qm);
+    }
+}
+
+/**
+ * Box filters one line of n pixels, step bytes apart, in place using running sums, so
+ * every pixel costs the same whatever its radius. The radius of pixel i is
+ * radii[i * radiusStep], a radiusStep of 0 gives the whole line one radius. Windows are
+ * clipped at the line ends and averaged over the pixels they cover.
+ */
+static void qmboxLine(unsigned char* p,
+                      unsigned int n,
+                      unsigned int step,
+                      const int* radii,
+                      unsigned int radiusStep,
+                      unsigned int* sums)
+{
+    unsigned int i, c;
+    unsigned char* px = p;
+
+    // Differences of the unsigned sums stay exact even when a sum wraps around
+    sums[0] = sums[1] = sums[2] = 0;
+    for (i = 0; i < n; i++, px += step)
+    {
+        for (c = 0; c < 3; c++)
+        {
+            sums[(i + 1) * 3 + c] = sums[i * 3 + c] + px[c];
+        }
+    }
+
+    px = p;
+    for (i = 0; i < n; i++, px += step)
+    {
+        int r = radii[i * radiusStep];
+        if (r <= 0) continue;
+
+        unsigned int lo = (unsigned int) r > i ? 0 : i - r;
+        unsigned int hi = i + r >= n ? n - 1 : i + r;
+        unsigned int count = hi - lo + 1;
+        unsigned int alpha = px[3];
+        for (c = 0; c < 3; c++)
+        {
+            unsigned int v = (sums[(hi + 1) * 3 + c] - sums[lo * 3 + c] + count / 2) / count;
+            px[c] = v > alpha ? alpha : v;
+        }
+    }
+}
+
+/**
+ * Final write of a masked line: every premultiplied pixel is scaled by weights[j] / 255
+ * and tints[j], a premultiplied ARGB color, is added on top, with j = i * maskStep.
+ */
+static void qmmaskLine(unsigned char* p,
+                       unsigned int n,
+                       unsigned int step,
+                       const int* weights,
+                       const int* tints,
+                       unsigned int maskStep)
+{
+    unsigned int i;
+    for (i = 0; i < n; i++, p += step)
+    {
+        unsigned int weight = weights[i * maskStep];
+        unsigned int tint = tints[i * maskStep];
+        p[0] = ((tint >> 16) & 0xFF) + (p[0] * weight + 127) / 255;
+        p[1] = ((tint >> 8) & 0xFF) + (p[1] * weight + 127) / 255;
+        p[2] = (tint & 0xFF) + (p[2] * weight + 127) / 255;
+        p[3] = (tint >> 24) + (p[3] * weight + 127) / 255;
+    }
+}
+
+/**
+ * Blur with a radius that changes along one axis, radii holds one radius per row when
+ * vertical is set and one per column otherwise. Two box passes per direction make a tent
+ * filter close to the stack blur of the same radius. Step 1 filters rows, step 2 columns
+ * and applies the optional mask, indexed like radii, as each column is done.
+ */
+void qmblurVariableJob(unsigned char* src,
+                       unsigned int w,
+                       unsigned int h,
+                       unsigned int stride,
+                       const int* radii,
+                       const int* weights,
+                       const int* tints,
+                       int vertical,
+                       int cores,
+                       int core,
+                       int step,
+                       unsigned int* sums)
+{
+    unsigned int i, pass;
+
+    if (step == 1)
+    {
+        unsigned int minY = core * h / cores;
+        unsigned int maxY = (core + 1) * h / cores;
+        for (i = minY; i < maxY; i++)
+        {
+            for (pass = 0; pass < 2; pass++)
+            {
+                if (vertical) qmboxLine(src + i * stride, w, 4, radii + i, 0, sums);
+                else qmboxLine(src + i * stride, w, 4, radii, 1, sums);
+            }
+        }
+    }
+    else if (step == 2)
+    {
+        unsigned int minX = core * w / cores;
+        unsigned int maxX = (core + 1) * w / cores;
+        for (i = minX; i < maxX; i++)
+        {
+            for (pass = 0; pass < 2; pass++)
+            {
+                if (vertical) qmboxLine(src + i * 4, h, stride, radii, 1, sums);
+                else qmboxLine(src + i * 4, h, stride, radii + i, 0, sums);
+            }
+            if (weights == NULL) continue;
+            if (vertical) qmmaskLine(src + i * 4, h, stride, weights, tints, 1);
+            else qmmaskLine(src + i * 4, h, stride, weights + i, tints + i, 0);
+        }
+    }
+}
+
+/**
+ * Copies a 12 value color matrix into buffer, NULL when there is none.
+ */
+static const int* qmreadMatrix(JNIEnv* env, jintArray matrix, jint* buffer)
+{
+    if (matrix == NULL || (*env)->GetArrayLength(env, matrix) < 12) return NULL;
+    (*env)->GetIntArrayRegion(env, matrix, 0, 12, buffer);
+    return buffer;
+}
+
+JNIEXPORT void JNICALL Java_com_qmdeve_blurview_BlurNative_blur(JNIEnv* env, jclass clzz, jobject bitmapOut, jint radius, jint threadCount, jint threadIndex, jint round, jint tint, jintArray matrix, jint grain, jlongArray stats) {
     AndroidBitmapInfo   infoOut;
     void*               pixelsOut;
 
@@ -301,6 +652,9 @@ JNIEXPORT void JNICALL Java_com_qmdeve_blurview_BlurNative_blur(JNIEnv* env, jcl
         return;
     }
 
+    jint matrixBuffer[12];
+    const int* matrixValues = qmreadMatrix(env, matrix, matrixBuffer);
+
     if ((ret = AndroidBitmap_lockPixels(env, bitmapOut, &pixelsOut)) != 0) {
         LOGE("AndroidBitmap_lockPixels() failed ! error=%d", ret);
         return;
@@ -309,6 +663,213 @@ JNIEXPORT void JNICALL Java_com_qmdeve_blurview_BlurNative_blur(JNIEnv* env, jcl
     int h = infoOut.height;
     int w = infoOut.width;
 
-    qmblurJob((unsigned char*)pixelsOut, w, h, radius, threadCount, threadIndex, round);
+    // Every thread sums into its own slot of stats, the caller adds the slots up
+    long long sums[QMBLUR_STATS_SIZE];
+    int collect = round == 2 && stats != NULL
+            && (*env)->GetArrayLength(env, stats) >= (threadIndex + 1) * QMBLUR_STATS_SIZE;
+    if (collect) memset(sums, 0, sizeof(sums));
+
+    QmOutput out;
+    int hasOutput = round == 2 && qmoutputInit(&out, tint, matrixValues, grain, 0, 0, collect ? sums : NULL);
+    qmblurJob((unsigned char*)pixelsOut, w, h, infoOut.stride, radius, threadCount, threadIndex, round,
+              hasOutput ? &out : NULL);
+    AndroidBitmap_unlockPixels(env, bitmapOut);
+
+    if (collect) {
+        (*env)->SetLongArrayRegion(env, stats, threadIndex * QMBLUR_STATS_SIZE, QMBLUR_STATS_SIZE, (jlong*) sums);
+    }
+}
+
+JNIEXPORT void JNICALL Java_com_qmdeve_blurview_BlurNative_blurRegion(JNIEnv* env, jclass clzz, jobject bitmapOut, jint radius, jint threadCount, jint threadIndex, jint round, jint left, jint top, jint right, jint bottom, jint tint, jintArray matrix, jint grain, jint grainX, jint grainY) {
+    AndroidBitmapInfo   infoOut;
+    void*               pixelsOut;
+
+    int ret;
+
+    if ((ret = AndroidBitmap_getInfo(env, bitmapOut, &infoOut)) != 0) {
+        LOGE("AndroidBitmap_getInfo() failed ! error=%d", ret);
+        return;
+    }
+
+    if (infoOut.format != ANDROID_BITMAP_FORMAT_RGBA_8888) {
+        LOGE("Bitmap format is not RGBA_8888!");
+        return;
+    }
+
+    if (left < 0 || top < 0 || right > (int) infoOut.width || bottom > (int) infoOut.height
+            || left >= right || top >= bottom) {
+        LOGE("Blur region out of bounds");
+        return;
+    }
+
+    jint matrixBuffer[12];
+    const int* matrixValues = qmreadMatrix(env, matrix, matrixBuffer);
+
+    if ((ret = AndroidBitmap_lockPixels(env, bitmapOut, &pixelsOut)) != 0) {
+        LOGE("AndroidBitmap_lockPixels() failed ! error=%d", ret);
+        return;
+    }
+
+    unsigned char* origin = (unsigned char*)pixelsOut + top * infoOut.stride + left * 4;
+    QmOutput out;
+    int hasOutput = round == 2 && qmoutputInit(&out, tint, matrixValues, grain, grainX + left, grainY + top, NULL);
+    qmblurJob(origin, right - left, bottom - top, infoOut.stride, radius, threadCount, threadIndex, round,
+              hasOutput ? &out : NULL);
+    AndroidBitmap_unlockPixels(env, bitmapOut);
+}
+
+JNIEXPORT void JNICALL Java_com_qmdeve_blurview_BlurNative_shift(JNIEnv* env, jclass clzz, jobject bitmapOut, jint dx, jint dy) {
+    AndroidBitmapInfo   infoOut;
+    void*               pixelsOut;
+
+    int ret;
+
+    if ((ret = AndroidBitmap_getInfo(env, bitmapOut, &infoOut)) != 0) {
+        LOGE("AndroidBitmap_getInfo() failed ! error=%d", ret);
+        return;
+    }
+
+    int w = infoOut.width;
+    int h = infoOut.height;
+    int adx = dx < 0 ? -dx : dx;
+    int ady = dy < 0 ? -dy : dy;
+    if (infoOut.format != ANDROID_BITMAP_FORMAT_RGBA_8888 || adx >= w || ady >= h) return;
+
+    if ((ret = AndroidBitmap_lockPixels(env, bitmapOut, &pixelsOut)) != 0) {
+        LOGE("AndroidBitmap_lockPixels() failed ! error=%d", ret);
+        return;
+    }
+
+    unsigned char* pixels = (unsigned char*)pixelsOut;
+    unsigned int stride = infoOut.stride;
+    size_t rowBytes = (size_t) (w - adx) * 4;
+    int srcX = dx < 0 ? adx : 0;
+    int dstX = dx > 0 ? adx : 0;
+    int y;
+
+    // Content moves by (dx, dy), the vacated strip keeps stale pixels and is rewritten by the caller
+    if (dy > 0) {
+        for (y = h - 1; y >= dy; y--) {
+            memmove(pixels + y * stride + dstX * 4, pixels + (y - dy) * stride + srcX * 4, rowBytes);
+        }
+    } else {
+        for (y = 0; y < h + dy; y++) {
+            memmove(pixels + y * stride + dstX * 4, pixels + (y - dy) * stride + srcX * 4, rowBytes);
+        }
+    }
+
     AndroidBitmap_unlockPixels(env, bitmapOut);
-}
\ No newline at end of file
+}
+
+JNIEXPORT void JNICALL Java_com_qmdeve_blurview_BlurNative_blurReduce(JNIEnv* env, jclass clzz, jobject bitmapIn, jobject bitmapOut, jint radius, jint factor, jint threadCount, jint threadIndex) {
+    AndroidBitmapInfo   infoIn;
+    AndroidBitmapInfo   infoOut;
+    void*               pixelsIn;
+    void*               pixelsOut;
+
+    int ret;
+
+    if ((ret = AndroidBitmap_getInfo(env, bitmapIn, &infoIn)) != 0
+            || (ret = AndroidBitmap_getInfo(env, bitmapOut, &infoOut)) != 0) {
+        LOGE("AndroidBitmap_getInfo() failed ! error=%d", ret);
+        return;
+    }
+
+    if (infoIn.format != ANDROID_BITMAP_FORMAT_RGBA_8888 || infoOut.format != ANDROID_BITMAP_FORMAT_RGBA_8888) {
+        LOGE("Bitmap format is not RGBA_8888!");
+        return;
+    }
+
+    // Every output pixel needs at least one source pixel
+    if (factor < 1 || infoIn.width < (infoOut.width - 1) * factor + 1
+            || infoIn.height < (infoOut.height - 1) * factor + 1) {
+        LOGE("Reduce source too small");
+        return;
+    }
+
+    unsigned char* line = malloc(infoOut.width * 4);
+    if (line == NULL) return;
+
+    if ((ret = AndroidBitmap_lockPixels(env, bitmapIn, &pixelsIn)) != 0) {
+        LOGE("AndroidBitmap_lockPixels() failed ! error=%d", ret);
+        free(line);
+        return;
+    }
+    if ((ret = AndroidBitmap_lockPixels(env, bitmapOut, &pixelsOut)) != 0) {
+        LOGE("AndroidBitmap_lockPixels() failed ! error=%d", ret);
+        AndroidBitmap_unlockPixels(env, bitmapIn);
+        free(line);
+        return;
+    }
+
+    qmblurReduceJob((const unsigned char*)pixelsIn, infoIn.width, infoIn.height, infoIn.stride,
+                    (unsigned char*)pixelsOut, infoOut.width, infoOut.height, infoOut.stride,
+                    factor, radius, threadCount, threadIndex, line);
+
+    AndroidBitmap_unlockPixels(env, bitmapOut);
+    AndroidBitmap_unlockPixels(env, bitmapIn);
+    free(line);
+}
+
+JNIEXPORT void JNICALL Java_com_qmdeve_blurview_BlurNative_blurVariable(JNIEnv* env, jclass clzz, jobject bitmapOut, jintArray radii, jintArray weights, jintArray tints, jboolean vertical, jint threadCount, jint threadIndex, jint round) {
+    AndroidBitmapInfo   infoOut;
+    void*               pixelsOut;
+
+    int ret;
+
+    if ((ret = AndroidBitmap_getInfo(env, bitmapOut, &infoOut)) != 0) {
+        LOGE("AndroidBitmap_getInfo() failed ! error=%d", ret);
+        return;
+    }
+
+    if (infoOut.format != ANDROID_BITMAP_FORMAT_RGBA_8888) {
+        LOGE("Bitmap format is not RGBA_8888!");
+        return;
+    }
+
+    unsigned int count = vertical ? infoOut.height : infoOut.width;
+    int masked = weights != NULL && tints != NULL;
+    if ((*env)->GetArrayLength(env, radii) < (jsize) count
+            || (masked && ((*env)->GetArrayLength(env, weights) < (jsize) count
+            || (*env)->GetArrayLength(env, tints) < (jsize) count))) {
+        LOGE("Radius map or mask too short");
+        return;
+    }
+
+    // Radii, weights and tints share one allocation
+    int* boxRadii = malloc(count * (masked ? 3 : 1) * sizeof(int));
+    unsigned int longest = infoOut.width > infoOut.height ? infoOut.width : infoOut.height;
+    unsigned int* sums = malloc((longest + 1) * 3 * sizeof(unsigned int));
+    if (boxRadii == NULL || sums == NULL) {
+        free(boxRadii);
+        free(sums);
+        return;
+    }
+    int* maskWeights = masked ? boxRadii + count : NULL;
+    int* maskTints = masked ? boxRadii + count * 2 : NULL;
+    (*env)->GetIntArrayRegion(env, radii, 0, count, boxRadii);
+    if (masked) {
+        (*env)->GetIntArrayRegion(env, weights, 0, count, maskWeights);
+        (*env)->GetIntArrayRegion(env, tints, 0, count, maskTints);
+    }
+
+    // Box passes use half the radius each, together they reach about as far as the stack blur
+    unsigned int i;
+    for (i = 0; i < count; i++) {
+        boxRadii[i] = (boxRadii[i] + 1) / 2;
+    }
+
+    if ((ret = AndroidBitmap_lockPixels(env, bitmapOut, &pixelsOut)) != 0) {
+        LOGE("AndroidBitmap_lockPixels() failed ! error=%d", ret);
+        free(boxRadii);
+        free(sums);
+        return;
+    }
+
+    qmblurVariableJob((unsigned char*)pixelsOut, infoOut.width, infoOut.height, infoOut.stride,
+                      boxRadii, maskWeights, maskTints, vertical, threadCount, threadIndex, round, sums);
+
+    AndroidBitmap_unlockPixels(env, bitmapOut);
+    free(boxRadii);
+    free(sums);
+}
@@ -1,9 +1,129 @@
 package com.qmdeve.blurview;
 
 import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
 
+/**
+ * A blur engine. Only {@link #prepare}, {@link #release} and {@link #blur} have to be
+ * implemented, the other methods have fallbacks. Engines that implement them return
+ * true from {@link #supportsExtensions()}.
+ */
 public interface Blur {
     boolean prepare(Bitmap buffer, float radius);
     void release();
     void blur(Bitmap input, Bitmap output);
+
+    /**
+     * Whether the engine implements the optional methods itself rather than relying on
+     * their fallbacks. Views only take the paths built on them when it does.
+     */
+    default boolean supportsExtensions() {
+        return false;
+    }
+
+    /**
+     * Blurs the region of the bitmap in place. Falls back to blurring the whole bitmap.
+     */
+    default void blurRegion(Bitmap bitmap, Rect region) {
+        Bitmap input = bitmap.copy(Bitmap.Config.ARGB_8888, false);
+        if (input == null) return;
+        blur(input, bitmap);
+        input.recycle();
+    }
+
+    /**
+     * Like {@link #blurRegion(Bitmap, Rect)} for a bitmap that holds part of a larger
+     * buffer, at (grainX, grainY) in it, so the grain lines up with the rest of the buffer.
+     */
+    default void blurRegion(Bitmap bitmap, Rect region, int grainX, int grainY) {
+        blurRegion(bitmap, region);
+    }
+
+    /**
+     * Sets a color blended over the blurred pixels as {@link #blur}, {@link #blurRegion}
+     * and {@link #blurReduced} write them, so it does not have to be drawn over the
+     * result. 0 for none. Ignored by engines that do not support extensions.
+     */
+    default void setTint(int color) {
+    }
+
+    /**
+     * Sets the color adjustment and grain applied to the same pixels as the tint, before
+     * the tint is blended. Ignored by engines that do not support extensions.
+     */
+    default void setVibrancy(BlurVibrancy vibrancy) {
+    }
+
+    /**
+     * Makes {@link #blur} and {@link #blurReduced} sum up color statistics of their output
+     * into stats, null to stop. Region blurs leave it untouched, as do engines that do
+     * not support extensions.
+     */
+    default void setColorStats(BlurColorStats stats) {
+    }
+
+    /**
+     * Blurs input into an output factor times smaller, area averaging factor x factor
+     * blocks of input pixels on the way. Falls back to scaling input down into a
+     * temporary bitmap and blurring that.
+     */
+    default void blurReduced(Bitmap input, Bitmap output, int factor) {
+        Bitmap reduced = Bitmap.createBitmap(output.getWidth(), output.getHeight(), Bitmap.Config.ARGB_8888);
+        new Canvas(reduced).drawBitmap(input, null,
+                new Rect(0, 0, output.getWidth(), output.getHeight()), new Paint(Paint.FILTER_BITMAP_FLAG));
+        blur(reduced, output);
+        reduced.recycle();
+    }
+
+    /**
+     * Blurs input into output with a radius that changes along one axis, in constant time
+     * per pixel whatever the radius. The optional mask is indexed like the radii and
+     * applied to the blurred pixels: each is scaled by its weight and has its tint added.
+     * Falls back to a full blur with the prepared radius, masked the same way, or faded
+     * in over the input in proportion to each radius when there is no mask.
+     *
+     * @param radii    one radius per output row when vertical, else one per column
+     * @param weights  0 to 255, or null for no mask
+     * @param tints    premultiplied ARGB colors, or null for no mask
+     */
+    default void blurVariable(Bitmap input, Bitmap output, int[] radii, int[] weights, int[] tints, boolean vertical) {
+        blur(input, output);
+        boolean masked = weights != null && tints != null;
+        int maxRadius = 0;
+        for (int radius : radii) maxRadius = Math.max(maxRadius, radius);
+
+        int width = vertical ? output.getWidth() : 1;
+        int height = vertical ? 1 : output.getHeight();
+        int[] sharp = new int[width * height], blurred = new int[width * height];
+        for (int i = 0; i < radii.length; i++) {
+            int x = vertical ? 0 : i, y = vertical ? i : 0;
+            int weight = maxRadius == 0 ? 0 : radii[i] * 256 / maxRadius;
+            if (!masked) input.getPixels(sharp, 0, width, x, y, width, height);
+            output.getPixels(blurred, 0, width, x, y, width, height);
+            for (int j = 0; j < blurred.length; j++) {
+                int color = blurred[j], mixed;
+                if (masked) {
+                    // Pixels are not premultiplied here, the tint is
+                    int tint = tints[i];
+                    int alpha = (color >>> 24) * weights[i] / 255;
+                    int outAlpha = Math.min(255, (tint >>> 24) + alpha);
+                    mixed = outAlpha << 24;
+                    for (int shift = 0; shift < 24; shift += 8) {
+                        int premultiplied = (color >>> shift & 0xFF) * alpha / 255 + (tint >>> shift & 0xFF);
+                        mixed |= (outAlpha == 0 ? 0 : Math.min(255, premultiplied * 255 / outAlpha)) << shift;
+                    }
+                } else {
+                    mixed = 0;
+                    for (int shift = 0; shift < 32; shift += 8) {
+                        int from = sharp[j] >>> shift & 0xFF, to = color >>> shift & 0xFF;
+                        mixed |= (from + ((to - from) * weight >> 8)) << shift;
+                    }
+                }
+                blurred[j] = mixed;
+            }
+            output.setPixels(blurred, 0, width, x, y, width, height);
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,87 @@
+package com.qmdeve.blurview;
+
+import android.graphics.Color;
+
+/**
+ * Average color, luminance and a coarse luminance histogram of a blurred frame, summed
+ * up by the blur while it writes the pixels. Excludes the overlay color. One instance is
+ * reused for every frame, copy what has to outlive the callback.
+ */
+public final class BlurColorStats {
+
+    public interface Listener {
+        /**
+         * Called on the main thread after a full blur of the background.
+         */
+        void onColorStats(BlurColorStats stats);
+    }
+
+    public static final int HISTOGRAM_BINS = 16;
+    /** Longs every blur thread writes its sums into. */
+    static final int SLOT_SIZE = 5 + HISTOGRAM_BINS;
+
+    private final int[] mHistogram = new int[HISTOGRAM_BINS];
+    private long[] mSlots;
+    private int mAverageColor;
+    private float mLuminance;
+    private int mPixelCount;
+
+    long[] obtainSlots(int threadCount) {
+        if (mSlots == null || mSlots.length != threadCount * SLOT_SIZE) {
+            mSlots = new long[threadCount * SLOT_SIZE];
+        }
+        return mSlots;
+    }
+
+    /**
+     * Adds up the per thread sums of the last blur.
+     */
+    void update(int threadCount) {
+        long red = 0, green = 0, blue = 0, luminance = 0, count = 0;
+        for (int i = 0; i < HISTOGRAM_BINS; i++) mHistogram[i] = 0;
+        for (int t = 0; t < threadCount; t++) {
+            int slot = t * SLOT_SIZE;
+            red += mSlots[slot];
+            green += mSlots[slot + 1];
+            blue += mSlots[slot + 2];
+            luminance += mSlots[slot + 3];
+            count += mSlots[slot + 4];
+            for (int i = 0; i < HISTOGRAM_BINS; i++) {
+                mHistogram[i] += (int) mSlots[slot + 5 + i];
+            }
+        }
+        mPixelCount = (int) count;
+        if (count == 0) {
+            mAverageColor = Color.TRANSPARENT;
+            mLuminance = 0;
+            return;
+        }
+        mAverageColor = Color.rgb((int) (red / count), (int) (green / count), (int) (blue / count));
+        mLuminance = luminance / (255f * count);
+    }
+
+    /**
+     * @return the opaque average color, premultiplied pixels are averaged as if over black
+     */
+    public int getAverageColor() {
+        return mAverageColor;
+    }
+
+    /**
+     * @return the average luminance, from 0 for black to 1 for white
+     */
+    public float getLuminance() {
+        return mLuminance;
+    }
+
+    /**
+     * @return how many pixels fall into the given luminance bin, bin 0 being the darkest
+     */
+    public int getHistogramCount(int bin) {
+        return mHistogram[bin];
+    }
+
+    public int getPixelCount() {
+        return mPixelCount;
+    }
+}
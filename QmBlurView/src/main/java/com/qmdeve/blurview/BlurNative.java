@@ -4,6 +4,7 @@ import android.content.Context;
 import android.content.pm.ApplicationInfo;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Rect;
 
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -14,9 +15,28 @@ public class BlurNative implements Blur {
     private static final int MAX_RADIUS = 25;
     private static final int MIN_RADIUS = 2;
     private final AtomicBoolean isBlurring = new AtomicBoolean(false);
+    private final Canvas copyCanvas = new Canvas();
     private ExecutorService executorService;
     private int threadCount = DEFAULT_THREAD_COUNT;
+    private final int requestedThreadCount;
+    private final int maxRadius;
     private float radius = MAX_RADIUS;
+    private volatile int tint;
+    private volatile BlurVibrancy vibrancy = BlurVibrancy.NONE;
+    private volatile BlurColorStats colorStats;
+
+    public BlurNative() {
+        this(0, MAX_RADIUS);
+    }
+
+    /**
+     * @param threadCount blur threads, 0 to pick from the CPU count
+     * @param maxRadius   radius clamp, at most 254 which is what the native tables cover
+     */
+    public BlurNative(int threadCount, int maxRadius) {
+        this.requestedThreadCount = threadCount;
+        this.maxRadius = Math.max(MIN_RADIUS, Math.min(254, maxRadius));
+    }
 
     static {
         System.loadLibrary("QmBlur");
@@ -27,17 +47,76 @@ public class BlurNative implements Blur {
             int radius,
             int threadCount,
             int threadIndex,
+            int round,
+            int tint,
+            int[] matrix,
+            int grain,
+            long[] stats
+    );
+
+    public static native void blurRegion(
+            Object bitmap,
+            int radius,
+            int threadCount,
+            int threadIndex,
+            int round,
+            int left,
+            int top,
+            int right,
+            int bottom,
+            int tint,
+            int[] matrix,
+            int grain,
+            int grainX,
+            int grainY
+    );
+
+    /**
+     * Fused first pass of {@link #blurReduced(Bitmap, Bitmap, int)}, area averages the input
+     * and blurs the reduced rows horizontally into the output.
+     */
+    public static native void blurReduce(
+            Object input,
+            Object output,
+            int radius,
+            int factor,
+            int threadCount,
+            int threadIndex
+    );
+
+    /**
+     * Box blur driven by running sums with one radius per row when vertical, else per
+     * column. Round 1 filters rows, round 2 columns and writes the mask if there is one.
+     */
+    public static native void blurVariable(
+            Object bitmap,
+            int[] radii,
+            int[] weights,
+            int[] tints,
+            boolean vertical,
+            int threadCount,
+            int threadIndex,
             int round
     );
 
+    /**
+     * Moves the pixels of the bitmap by (dx, dy) in place. The vacated strip keeps
+     * stale pixels and has to be rewritten by the caller.
+     */
+    public static native void shift(Object bitmap, int dx, int dy);
+
     @Override
     public boolean prepare(Bitmap buffer, float radius) {
-        this.radius = clamp(radius);
+        this.radius = Math.max(MIN_RADIUS, Math.min(maxRadius, radius));
 
         synchronized (this) {
             if (executorService == null || executorService.isShutdown()) {
-                int cpuCount = Runtime.getRuntime().availableProcessors();
-                threadCount = Math.max(2, Math.min(5, cpuCount));
+                if (requestedThreadCount > 0) {
+                    threadCount = requestedThreadCount;
+                } else {
+                    int cpuCount = Runtime.getRuntime().availableProcessors();
+                    threadCount = Math.max(2, Math.min(5, cpuCount));
+                }
 
                 executorService = new ThreadPoolExecutor(
                         threadCount,
@@ -57,6 +136,26 @@ public class BlurNative implements Blur {
         return true;
     }
 
+    @Override
+    public boolean supportsExtensions() {
+        return true;
+    }
+
+    @Override
+    public void setTint(int color) {
+        tint = color;
+    }
+
+    @Override
+    public void setVibrancy(BlurVibrancy vibrancy) {
+        this.vibrancy = vibrancy != null ? vibrancy : BlurVibrancy.NONE;
+    }
+
+    @Override
+    public void setColorStats(BlurColorStats stats) {
+        colorStats = stats;
+    }
+
     @Override
     public void release() {
         synchronized (this) {
@@ -75,29 +174,111 @@ public class BlurNative implements Blur {
         if (!isBlurring.compareAndSet(false, true)) return;
 
         try {
-            if (input != output) {
-                synchronized (this) {
-                    new Canvas(output).drawBitmap(input, 0, 0, null);
-                }
-            }
-            doBlurRound(output, 1);
-            doBlurRound(output, 2);
+            if (input != output) copy(input, output);
+            doBlurRound(output, null, 1, 0, 0);
+            doBlurRound(output, null, 2, 0, 0);
         } finally {
             isBlurring.set(false);
         }
     }
 
-    private void doBlurRound(Bitmap bitmap, int round) {
-        if (executorService == null || executorService.isShutdown()) return;
+    @Override
+    public void blurRegion(Bitmap bitmap, Rect region) {
+        blurRegion(bitmap, region, 0, 0);
+    }
+
+    @Override
+    public void blurRegion(Bitmap bitmap, Rect region, int grainX, int grainY) {
+        if (bitmap == null || bitmap.isRecycled() || region.isEmpty()) return;
+
+        if (!isBlurring.compareAndSet(false, true)) return;
 
+        try {
+            doBlurRound(bitmap, region, 1, grainX, grainY);
+            doBlurRound(bitmap, region, 2, grainX, grainY);
+        } finally {
+            isBlurring.set(false);
+        }
+    }
+
+    @Override
+    public void blurReduced(Bitmap input, Bitmap output, int factor) {
+        if (input == null || output == null ||
+                input.isRecycled() || output.isRecycled()) return;
+
+        if (!isBlurring.compareAndSet(false, true)) return;
+
+        try {
+            int r = (int) radius;
+            runRound(index -> blurReduce(input, output, r, factor, threadCount, index));
+            doBlurRound(output, null, 2, 0, 0);
+        } finally {
+            isBlurring.set(false);
+        }
+    }
+
+    @Override
+    public void blurVariable(Bitmap input, Bitmap output, int[] radii, int[] weights, int[] tints,
+                             boolean vertical) {
+        if (input == null || output == null || radii == null ||
+                input.isRecycled() || output.isRecycled()) return;
+
+        if (!isBlurring.compareAndSet(false, true)) return;
+
+        try {
+            if (input != output) copy(input, output);
+            runRound(index -> blurVariable(output, radii, weights, tints, vertical, threadCount, index, 1));
+            runRound(index -> blurVariable(output, radii, weights, tints, vertical, threadCount, index, 2));
+        } finally {
+            isBlurring.set(false);
+        }
+    }
+
+    /**
+     * Copies through one canvas kept for the engine's lifetime, so pooled buffers are
+     * not wrapped in a new canvas on every blur.
+     */
+    private void copy(Bitmap input, Bitmap output) {
+        synchronized (this) {
+            copyCanvas.setBitmap(output);
+            copyCanvas.drawBitmap(input, 0, 0, null);
+            copyCanvas.setBitmap(null);
+        }
+    }
+
+    private interface RoundJob {
+        void run(int threadIndex);
+    }
+
+    private void doBlurRound(Bitmap bitmap, Rect region, int round, int grainX, int grainY) {
         int r = (int) radius;
+        int color = tint;
+        int[] matrix = vibrancy.getMatrix();
+        int grain = vibrancy.getGrain();
+        BlurColorStats stats = region == null && round == 2 ? colorStats : null;
+        long[] slots = stats != null ? stats.obtainSlots(threadCount) : null;
+        runRound(index -> {
+            if (region == null) {
+                blur(bitmap, r, threadCount, index, round, color, matrix, grain, slots);
+            } else {
+                blurRegion(bitmap, r, threadCount, index, round,
+                        region.left, region.top, region.right, region.bottom, color, matrix, grain,
+                        grainX, grainY);
+            }
+        });
+        if (stats != null) stats.update(threadCount);
+    }
+
+    private void runRound(RoundJob job) {
+        if (executorService == null || executorService.isShutdown()) return;
+
         CountDownLatch latch = new CountDownLatch(threadCount);
 
         for (int i = 0; i < threadCount; i++) {
             final int index = i;
             executorService.execute(() -> {
                 try {
-                    blur(bitmap, r, threadCount, index, round);
+                    job.run(index);
                 } catch (Exception e) {
                     if (isDebug(null)) e.printStackTrace();
                 } finally {
@@ -113,10 +294,6 @@ public class BlurNative implements Blur {
         }
     }
 
-    private static float clamp(float value) {
-        return Math.max((float) BlurNative.MIN_RADIUS, Math.min((float) BlurNative.MAX_RADIUS, value));
-    }
-
     private static Boolean DEBUG = null;
 
     static boolean isDebug(Context ctx) {
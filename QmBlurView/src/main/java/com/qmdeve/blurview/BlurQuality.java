@@ -0,0 +1,92 @@
+package com.qmdeve.blurview;
+
+/**
+ * Trades blur quality for speed. A quality sets the downsample factor the background is
+ * captured at, the largest radius blurred at that resolution before downsampling
+ * further, the number of blur threads and the blur engine.
+ * <p>
+ * Set it per view, or for all views that do not set their own with
+ * {@link #setDefault(BlurQuality)}.
+ */
+public final class BlurQuality {
+
+    public interface EngineFactory {
+        Blur create(BlurQuality quality);
+    }
+
+    public static final EngineFactory NATIVE_ENGINE =
+            quality -> new BlurNative(quality.getThreadCount(), quality.getMaxRadius());
+
+    /** Coarse capture, small kernel and two threads, for low end devices and large views. */
+    public static final BlurQuality LOW = new BlurQuality(4f, 15, 2);
+    /** The library defaults. */
+    public static final BlurQuality BALANCED = new BlurQuality(2.52f, 25, 0);
+    /** Fine capture and a larger kernel, for small views or strong blurs on fast devices. */
+    public static final BlurQuality HIGH = new BlurQuality(1.5f, 60, 0);
+
+    private static BlurQuality sDefault = BALANCED;
+
+    private final float mDownsampleFactor;
+    private final int mMaxRadius;
+    private final int mThreadCount;
+    private final EngineFactory mEngine;
+
+    /**
+     * @param downsampleFactor how many view pixels map to one blurred pixel, at least 1
+     * @param maxRadius        max radius in blurred pixels, between 2 and 254. Larger
+     *                         radii downsample further instead.
+     * @param threadCount      blur threads, 0 to pick from the CPU count
+     */
+    public BlurQuality(float downsampleFactor, int maxRadius, int threadCount) {
+        this(downsampleFactor, maxRadius, threadCount, NATIVE_ENGINE);
+    }
+
+    public BlurQuality(float downsampleFactor, int maxRadius, int threadCount, EngineFactory engine) {
+        mDownsampleFactor = Math.max(1f, downsampleFactor);
+        mMaxRadius = Math.max(2, Math.min(254, maxRadius));
+        mThreadCount = Math.max(0, threadCount);
+        mEngine = engine != null ? engine : NATIVE_ENGINE;
+    }
+
+    public static void setDefault(BlurQuality quality) {
+        sDefault = quality != null ? quality : BALANCED;
+    }
+
+    public static BlurQuality getDefault() {
+        return sDefault;
+    }
+
+    /**
+     * Maps a value of the {@code blurQuality} attribute to its preset.
+     */
+    public static BlurQuality fromAttribute(int value) {
+        switch (value) {
+            case 0:
+                return LOW;
+            case 2:
+                return HIGH;
+            default:
+                return BALANCED;
+        }
+    }
+
+    public float getDownsampleFactor() {
+        return mDownsampleFactor;
+    }
+
+    public int getMaxRadius() {
+        return mMaxRadius;
+    }
+
+    public int getThreadCount() {
+        return mThreadCount;
+    }
+
+    public EngineFactory getEngine() {
+        return mEngine;
+    }
+
+    public Blur createBlur() {
+        return mEngine.create(this);
+    }
+}
@@ -0,0 +1,96 @@
+package com.qmdeve.blurview;
+
+/**
+ * Saturation, brightness and contrast adjustment plus ordered dither grain, applied by
+ * the blur to the blurred pixels as it writes them. Gives a vibrant frosted look without
+ * a color filter or a noise texture drawn over the result.
+ */
+public final class BlurVibrancy {
+
+    /** Leaves the blurred pixels as they are. */
+    public static final BlurVibrancy NONE = new BlurVibrancy(1f, 0f, 1f, 0);
+
+    // Luminance weights, the same ColorMatrix.setSaturation uses
+    private static final float LUM_R = 0.213f;
+    private static final float LUM_G = 0.715f;
+    private static final float LUM_B = 0.072f;
+    private static final float ONE = 4096f;
+
+    private final float mSaturation;
+    private final float mBrightness;
+    private final float mContrast;
+    private final int mGrain;
+    private final int[] mMatrix;
+
+    /**
+     * @param saturation 1 unchanged, 0 grey, above 1 more vivid
+     * @param brightness added to every channel, between -1 and 1
+     * @param contrast   1 unchanged, scales the channels around mid grey
+     * @param grain      amplitude of the grain in color levels, 0 to 64
+     */
+    public BlurVibrancy(float saturation, float brightness, float contrast, int grain) {
+        mSaturation = Math.max(0f, saturation);
+        mBrightness = Math.max(-1f, Math.min(1f, brightness));
+        mContrast = Math.max(0f, contrast);
+        mGrain = Math.max(0, Math.min(64, grain));
+        mMatrix = mSaturation == 1f && mBrightness == 0f && mContrast == 1f ? null : buildMatrix();
+    }
+
+    /**
+     * Rows of r, g, b and offset weights in 1/4096, the layout the native blur expects.
+     * The offset is a fraction of the pixel alpha so it stays premultiplied.
+     */
+    private int[] buildMatrix() {
+        float[] lum = {LUM_R, LUM_G, LUM_B};
+        float offset = (1f - mContrast) * 0.5f + mBrightness;
+        int[] matrix = new int[12];
+        for (int row = 0; row < 3; row++) {
+            for (int column = 0; column < 3; column++) {
+                float saturated = (1f - mSaturation) * lum[column] + (row == column ? mSaturation : 0f);
+                matrix[row * 4 + column] = Math.round(saturated * mContrast * ONE);
+            }
+            matrix[row * 4 + 3] = Math.round(offset * ONE);
+        }
+        return matrix;
+    }
+
+    public float getSaturation() {
+        return mSaturation;
+    }
+
+    public float getBrightness() {
+        return mBrightness;
+    }
+
+    public float getContrast() {
+        return mContrast;
+    }
+
+    public int getGrain() {
+        return mGrain;
+    }
+
+    /**
+     * @return the color matrix for the native blur, null when the colors are unchanged
+     */
+    int[] getMatrix() {
+        return mMatrix;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof BlurVibrancy)) return false;
+        BlurVibrancy other = (BlurVibrancy) o;
+        return mSaturation == other.mSaturation && mBrightness == other.mBrightness
+                && mContrast == other.mContrast && mGrain == other.mGrain;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Float.floatToIntBits(mSaturation);
+        result = 31 * result + Float.floatToIntBits(mBrightness);
+        result = 31 * result + Float.floatToIntBits(mContrast);
+        return 31 * result + mGrain;
+    }
+}
@@ -7,9 +7,11 @@ import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.Path;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
 import android.graphics.Rect;
 import android.graphics.RectF;
-import android.os.Build;
+import android.os.SystemClock;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.View;
@@ -18,16 +20,27 @@ import android.view.ViewTreeObserver;
 import androidx.annotation.NonNull;
 
 import com.qmdeve.blurview.Blur;
-import com.qmdeve.blurview.BlurNative;
+import com.qmdeve.blurview.BlurColorStats;
+import com.qmdeve.blurview.BlurQuality;
+import com.qmdeve.blurview.BlurVibrancy;
 import com.qmdeve.blurview.R;
 import com.qmdeve.blurview.util.Utils;
 
 public abstract class BaseBlurView extends View {
     private static final String TAG = "BaseBlurView";
+    private static final long SCROLL_SETTLE_DELAY_MS = 150;
+    private static final long SHRINK_DELAY_MS = 1000;
+
+    /** Blur the background, unless the blur can not be seen. */
+    public static final int FALLBACK_NONE = 0;
+    /** Draw the overlay color fully opaque instead of blurring. */
+    public static final int FALLBACK_SOLID = 1;
+    /** Draw the overlay color as it is, over the unblurred background. */
+    public static final int FALLBACK_TRANSPARENT = 2;
 
     protected int mOverlayColor;
     protected float mBlurRadius;
-    protected final Blur mBlur;
+    protected Blur mBlur;
     protected boolean mDirty = true;
     protected Bitmap mBitmapToBlur;
     public Bitmap mBlurredBitmap;
@@ -41,100 +54,490 @@ public abstract class BaseBlurView extends View {
     public float mCornerRadius;
     public final RectF mClipRect = new RectF();
     public final Path mG3Path = new Path();
+    private final BlurShape mShape = new BlurShape();
+    private final Rect mBlurBounds = new Rect();
+    private int mFallbackMode = FALLBACK_NONE;
+    private int mActiveFallback = FALLBACK_NONE;
+    private boolean mBuffersResized;
+    private float mMemoryScale = 1f;
+    private final BlurMemoryManager.Client mMemoryClient = new BlurMemoryManager.Client() {
+        @Override
+        public long getBufferBytes() {
+            // The requested sizes, allocations kept for growing go back once the size settles
+            long bytes = mScrollTracker.getByteCount();
+            if (mBitmapToBlur != null) bytes += mBitmapToBlur.getByteCount();
+            if (mBlurredBitmap != null) bytes += mBlurredBitmap.getByteCount();
+            if (mPreviousBlurredBitmap != null) bytes += mPreviousBlurredBitmap.getByteCount();
+            if (mPyramid != null) bytes += mPyramid.getByteCount();
+            return bytes;
+        }
+
+        @Override
+        public float getMemoryScale() {
+            return mMemoryScale;
+        }
+
+        @Override
+        public void setMemoryScale(float scale) {
+            mMemoryScale = scale;
+            // Reallocate instead of shrinking in place, so the step frees memory right away
+            releaseBitmap();
+            refresh();
+        }
+
+        @Override
+        public void trimIfHidden() {
+            if (mBlurredBitmap == null || (isShown() && mWindowVisible)) return;
+            release();
+            mFullCaptureRequested = true;
+            // Frozen views have no listener left that would blur them again once shown
+            attachPipeline();
+        }
+
+        @Override
+        public boolean isBlurring() {
+            // Views that are hidden, clipped away or off the pipeline do not blur on their own
+            return mPipelineAttached && mWindowVisible && isShown() && getLocalVisibleRect(new Rect());
+        }
+    };
+    private int mBackgroundState = BlurInvalidationTracker.BACKGROUND_CHANGED;
+    private int mBlurGeneration;
+    private long mLastBlurTime;
+    private final BlurFrameHolder mFrames = new BlurFrameHolder();
+    private final int[] mScannerLocation = new int[2];
+    private final HardwareBitmapScanner.Client mScannerClient = outBounds -> {
+        if (!isShown()) {
+            outBounds.setEmpty();
+            return;
+        }
+        // Bounds of the last frame, the whole view before the first one
+        getLocationOnScreen(mScannerLocation);
+        if (mBlurBounds.isEmpty()) {
+            outBounds.set(0, 0, getWidth(), getHeight());
+        } else {
+            outBounds.set(mBlurBounds);
+        }
+        outBounds.offset(mScannerLocation[0], mScannerLocation[1]);
+    };
+    private int mLastOffsetX, mLastOffsetY;
+    private float mScaledRadius;
+    private boolean mFullCaptureRequested;
+    protected boolean mFrozen;
+    private boolean mPipelineAttached;
+    private final BlurScrollTracker mScrollTracker = new BlurScrollTracker();
+    private boolean mScrollPending;
+    private final BlurFrameScheduler mScheduler = new BlurFrameScheduler(this::invalidate);
+    private boolean mCrossfadeEnabled;
+    private boolean mCrossfading;
+    private Bitmap mPreviousBlurredBitmap;
+    private final Paint mCrossfadePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private BlurQualityGovernor mGovernor;
+    private boolean mWindowVisible = true;
+    private boolean mWindowFocused = true;
+    private boolean mPauseWhenUnfocused;
+    private final Rect mVisibleRect = new Rect();
+    private int mSupersampleFactor = 1;
+    private BlurQuality mQuality;
+    private BlurPyramid mPyramid;
+    private BlurQuality mAppliedQuality;
+    private int mReduceFactor = 1;
+    private boolean mFusedOverlay;
+    private boolean mOverlayBaked;
+    private BlurVibrancy mVibrancy = BlurVibrancy.NONE;
+    private final BlurColorStats mColorStats = new BlurColorStats();
+    private BlurColorStats.Listener mColorStatsListener;
+    private final Rect mBlurRect = new Rect();
+    private final Rect mValidRect = new Rect();
+    private final Canvas mRegionCanvas = new Canvas();
+    private final Paint mCopyPaint = new Paint();
+    private boolean mAdaptiveQuality = true;
+    private final BlurPowerMonitor.Listener mPowerListener = () -> {
+        updateFallback();
+        // Re-blur once so the new throttle, or the freeze it asks for, takes effect
+        mFullCaptureRequested = true;
+        if (!mFrozen) attachPipeline();
+        invalidate();
+    };
+
+    private final BlurInvalidationTracker.Client mTrackerClient = new BlurInvalidationTracker.Client() {
+        @Override
+        public View getHostView() {
+            return BaseBlurView.this;
+        }
+
+        @Override
+        public View getScrollingContainer() {
+            return mScrollTracker.getContainer();
+        }
+
+        @Override
+        public int getBlurGeneration() {
+            return mBlurGeneration;
+        }
+
+        @Override
+        public void onBackgroundChecked(int state) {
+            mBackgroundState = state;
+        }
+    };
+
+    /**
+     * Drives blur views that live in a different root than the source decor (dialogs,
+     * popups). The blur window only re-renders when the source window drew a new frame.
+     */
+    private final ViewTreeObserver.OnDrawListener mSourceDrawListener = new ViewTreeObserver.OnDrawListener() {
+        @Override
+        public void onDraw() {
+            mBackgroundState = BlurInvalidationTracker.BACKGROUND_CHANGED;
+            if (isShown()) postInvalidateOnAnimation();
+        }
+    };
 
     public BaseBlurView(Context context, AttributeSet attrs) {
         super(context, attrs);
-        mBlur = new BlurNative();
+        mAppliedQuality = BlurQuality.getDefault();
+        mBlur = mAppliedQuality.createBlur();
+        mCopyPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
         initAttributes(context, attrs);
     }
 
     protected void initAttributes(Context context, AttributeSet attrs) {}
 
+    public void setBlurRadius(float radius) {
+        if (mBlurRadius != radius && radius >= 0) {
+            mBlurRadius = radius;
+            // Pyramid levels have fixed radii, only the blend changes
+            if (mPyramid == null) mDirty = true;
+            attachPipeline();
+            invalidate();
+        }
+    }
+
+    /**
+     * Freezes the blur over static content. The background is captured and blurred once,
+     * then the pre-draw listener is removed and the cached result is drawn until
+     * {@link #refresh()} is called or the view changes size.
+     */
+    public void setFrozen(boolean frozen) {
+        if (mFrozen != frozen) {
+            mFrozen = frozen;
+            if (!frozen) {
+                attachPipeline();
+            } else if (mBlurredBitmap != null) {
+                detachPipeline();
+            }
+        }
+    }
+
+    public boolean isFrozen() {
+        return mFrozen;
+    }
+
+    /**
+     * Captures and blurs the background again on the next frame, also in frozen mode.
+     */
+    public void refresh() {
+        mFullCaptureRequested = true;
+        attachPipeline();
+        invalidate();
+    }
+
+    /**
+     * Limits how many times per second the background is blurred again, the last blurred
+     * frame is drawn in between.
+     *
+     * @param rate max blurs per second, 0 for no limit, negative to use
+     *             {@link #setDefaultMaxBlurRate(float)}
+     */
+    public void setMaxBlurRate(float rate) {
+        mScheduler.setMaxRate(rate);
+    }
+
+    public float getMaxBlurRate() {
+        return mScheduler.getMaxRate();
+    }
+
     /**
-     * Ensure bitmap is software-compatible for blur processing.
-     * Converts hardware bitmaps to software bitmaps to prevent
-     * "Software rendering doesn't support hardware bitmaps" error.
+     * Sets the max blur rate of all blur views and view groups that do not set their own.
      *
-     * @param bitmap The bitmap to check
-     * @return Software-compatible bitmap
+     * @param rate max blurs per second, 0 for no limit
      */
-    private Bitmap ensureSoftwareBitmap(Bitmap bitmap) {
-        if (bitmap == null) {
-            return null;
+    public static void setDefaultMaxBlurRate(float rate) {
+        BlurFrameScheduler.setDefaultMaxRate(rate);
+    }
+
+    public static float getDefaultMaxBlurRate() {
+        return BlurFrameScheduler.getDefaultMaxRate();
+    }
+
+    /**
+     * Crossfades between the two most recent blurred frames to hide a capped blur rate.
+     * Keeps one more blurred buffer around, and has no effect without a max blur rate.
+     */
+    public void setCrossfadeEnabled(boolean enabled) {
+        if (mCrossfadeEnabled != enabled) {
+            mCrossfadeEnabled = enabled;
+            if (!enabled) releasePreviousBitmap();
+            invalidate();
         }
+    }
 
-        // Hardware bitmaps were introduced in Android O (API 26)
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            if (bitmap.getConfig() == Bitmap.Config.HARDWARE) {
-                Log.d(TAG, "Converting hardware bitmap to software bitmap for blur processing");
-                try {
-                    return bitmap.copy(Bitmap.Config.ARGB_8888, false);
-                } catch (Exception e) {
-                    Log.e(TAG, "Failed to convert hardware bitmap: " + e.getMessage());
-                    return bitmap; // Return original if copy fails
-                }
-            }
+    public boolean isCrossfadeEnabled() {
+        return mCrossfadeEnabled;
+    }
+
+    /**
+     * Lets the blur degrade (coarser downsampling, lower blur rate, smaller radius) while
+     * the blur views of the window take too much of the frame time. Enabled by default.
+     */
+    public void setAdaptiveQualityEnabled(boolean enabled) {
+        if (mAdaptiveQuality != enabled) {
+            mAdaptiveQuality = enabled;
+            mFullCaptureRequested = true;
+            invalidate();
         }
+    }
 
-        return bitmap;
+    public boolean isAdaptiveQualityEnabled() {
+        return mAdaptiveQuality;
     }
 
     /**
-     * Recursively disable hardware bitmaps in a view hierarchy.
-     * This prevents "Software rendering doesn't support hardware bitmaps" errors
-     * when views are drawn onto software canvases for blur processing.
+     * Whether the blur is suspended while the window has lost focus, for example while a
+     * translucent activity is on top. Disabled by default, windows stay visible without
+     * focus under dialogs, popups and in multi-window, the blur would show stale content.
      */
-    private void disableHardwareBitmapsInView(View view) {
-        if (view == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
-            return;
+    public void setPauseWhenUnfocused(boolean pause) {
+        if (mPauseWhenUnfocused != pause) {
+            mPauseWhenUnfocused = pause;
+            onPauseChanged();
+        }
+    }
+
+    public boolean isPauseWhenUnfocused() {
+        return mPauseWhenUnfocused;
+    }
+
+    private boolean isPaused() {
+        return !mWindowVisible || (mPauseWhenUnfocused && !mWindowFocused);
+    }
+
+    private void onPauseChanged() {
+        if (!isPaused()) {
+            mFullCaptureRequested = true;
+            invalidate();
         }
+    }
 
-        try {
-            // Handle ImageView specifically
-            if (view instanceof android.widget.ImageView) {
-                android.widget.ImageView imageView = (android.widget.ImageView) view;
-                android.graphics.drawable.Drawable drawable = imageView.getDrawable();
-
-                if (drawable instanceof android.graphics.drawable.BitmapDrawable) {
-                    android.graphics.drawable.BitmapDrawable bitmapDrawable =
-                        (android.graphics.drawable.BitmapDrawable) drawable;
-                    Bitmap bitmap = bitmapDrawable.getBitmap();
-
-                    if (bitmap != null && bitmap.getConfig() == Bitmap.Config.HARDWARE) {
-                        Log.d(TAG, "Converting hardware bitmap in ImageView to software");
-                        Bitmap softwareBitmap = bitmap.copy(Bitmap.Config.ARGB_8888, false);
-                        if (softwareBitmap != null) {
-                            imageView.setImageBitmap(softwareBitmap);
-                        }
-                    }
-                }
-            }
+    /**
+     * @param quality the quality of this view, or null to follow {@link BlurQuality#getDefault()}
+     */
+    public void setBlurQuality(BlurQuality quality) {
+        mQuality = quality;
+        mFullCaptureRequested = true;
+        invalidate();
+    }
 
-            // Recursively process children if it's a ViewGroup
-            if (view instanceof android.view.ViewGroup) {
-                android.view.ViewGroup viewGroup = (android.view.ViewGroup) view;
-                int childCount = viewGroup.getChildCount();
-                for (int i = 0; i < childCount; i++) {
-                    disableHardwareBitmapsInView(viewGroup.getChildAt(i));
-                }
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "Error disabling hardware bitmaps: " + e.getMessage());
+    public BlurQuality getBlurQuality() {
+        return mQuality != null ? mQuality : BlurQuality.getDefault();
+    }
+
+    /**
+     * Computes blur levels with fixed radii from each capture and blends the two around
+     * the blur radius. Radius animations then neither reallocate buffers nor capture
+     * again, at the cost of a second, smaller blur buffer per level in use. Only affects
+     * drawing through drawBlurredBitmap, partial, scroll and supersampled updates are off.
+     */
+    public void setBlurPyramidEnabled(boolean enabled) {
+        if (enabled == (mPyramid != null)) return;
+        if (enabled) {
+            mPyramid = new BlurPyramid();
+        } else {
+            mPyramid.release();
+            mPyramid = null;
         }
+        mDirty = true;
+        mFullCaptureRequested = true;
+        invalidate();
     }
 
-    public void setBlurRadius(float radius) {
-        if (mBlurRadius != radius && radius >= 0) {
-            mBlurRadius = radius;
-            mDirty = true;
+    public boolean isBlurPyramidEnabled() {
+        return mPyramid != null;
+    }
+
+    /**
+     * Captures the background at factor times the blur resolution and area averages it
+     * down natively in the first blur pass, which keeps thin content from aliasing.
+     * Costs factor squared more capture memory, and turns off partial and scroll
+     * updates. Limited to the downsample factor, 1 captures at blur resolution.
+     */
+    public void setSupersampleFactor(int factor) {
+        factor = Math.max(1, Math.min(4, factor));
+        if (mSupersampleFactor != factor) {
+            mSupersampleFactor = factor;
+            mFullCaptureRequested = true;
+            invalidate();
+        }
+    }
+
+    public int getSupersampleFactor() {
+        return mSupersampleFactor;
+    }
+
+    /**
+     * Blends the overlay color into the blurred pixels while they are blurred, so drawing
+     * is a single bitmap draw on the small buffer instead of a bitmap plus a view sized
+     * overlay. Changing the overlay color then blurs again. Not used with the pyramid.
+     */
+    public void setFusedOverlayEnabled(boolean enabled) {
+        if (mFusedOverlay != enabled) {
+            mFusedOverlay = enabled;
+            refresh();
+        }
+    }
+
+    public boolean isFusedOverlayEnabled() {
+        return mFusedOverlay;
+    }
+
+    /**
+     * Adjusts saturation, brightness and contrast of the blurred pixels and adds grain,
+     * while they are blurred. Changing it blurs again. Not used with the pyramid or with
+     * engines that do not support extensions.
+     */
+    public void setVibrancy(BlurVibrancy vibrancy) {
+        if (vibrancy == null) vibrancy = BlurVibrancy.NONE;
+        if (!mVibrancy.equals(vibrancy)) {
+            mVibrancy = vibrancy;
+            refresh();
+        }
+    }
+
+    public BlurVibrancy getVibrancy() {
+        return mVibrancy;
+    }
+
+    /**
+     * Receives the average color, luminance and histogram of the background after every
+     * full blur, summed up by the blur itself. Partial and scroll updates do not report,
+     * nor do engines that do not support extensions.
+     */
+    public void setOnColorStatsListener(BlurColorStats.Listener listener) {
+        mColorStatsListener = listener;
+        if (listener != null) refresh();
+    }
+
+    protected boolean isColorStatsNeeded() {
+        return mColorStatsListener != null;
+    }
+
+    protected void onColorStats(BlurColorStats stats) {
+        if (mColorStatsListener != null) mColorStatsListener.onColorStats(stats);
+    }
+
+    /**
+     * Whether the tint and vibrancy can be applied by the blur itself. Pyramid levels are
+     * blended with the raw capture, radius maps are masked on their own, other engines
+     * only blur.
+     */
+    private boolean canBakeOutput() {
+        return mPyramid == null && !hasRadiusMap() && mBlur.supportsExtensions();
+    }
+
+    private boolean isOverlayFused() {
+        return mFusedOverlay && canBakeOutput();
+    }
+
+    /**
+     * Whether {@link #blur(Bitmap, Bitmap)} blurs with a radius that changes across the
+     * view. Such blurs always run on the whole buffer at capture resolution.
+     */
+    protected boolean hasRadiusMap() {
+        return false;
+    }
+
+    /**
+     * Sets the part of the view the buffers cover, in view coordinates. Only this part is
+     * captured and blurred, the default is the whole view. Called before every frame, a
+     * change of size reallocates the buffers and a move captures again.
+     */
+    protected void computeBlurBounds(Rect outBounds) {
+        outBounds.set(0, 0, getWidth(), getHeight());
+    }
+
+    /**
+     * Replaces the blur with a solid or transparent fill, see {@link #FALLBACK_SOLID} and
+     * {@link #FALLBACK_TRANSPARENT}. Without one the view still falls back on its own when
+     * the overlay is opaque or {@link BlurPowerMonitor#setReduceTransparency(boolean)} is
+     * on. While a fallback is drawn the pipeline is detached and the buffers are freed.
+     */
+    public void setFallbackMode(int mode) {
+        if (mFallbackMode != mode) {
+            mFallbackMode = mode;
+            updateFallback();
             invalidate();
         }
     }
 
+    public int getFallbackMode() {
+        return mFallbackMode;
+    }
+
+    /**
+     * @return the fallback drawn right now, {@link #FALLBACK_NONE} while blurring
+     */
+    protected int getActiveFallback() {
+        if (mFallbackMode != FALLBACK_NONE) return mFallbackMode;
+        if (BlurPowerMonitor.isReduceTransparency() || isOverlayOpaque()) return FALLBACK_SOLID;
+        return FALLBACK_NONE;
+    }
+
+    /**
+     * Whether the overlay hides the blur completely.
+     */
+    protected boolean isOverlayOpaque() {
+        return (mOverlayColor >>> 24) == 0xFF;
+    }
+
+    /**
+     * Detaches the pipeline and frees the buffers when a fallback becomes active, and
+     * attaches it again once the blur can be seen. Call when a state that
+     * {@link #getActiveFallback()} depends on changes.
+     */
+    protected final void updateFallback() {
+        int fallback = getActiveFallback();
+        if (fallback == mActiveFallback) return;
+        boolean wasBlurring = mActiveFallback == FALLBACK_NONE;
+        mActiveFallback = fallback;
+        if (fallback != FALLBACK_NONE && wasBlurring) {
+            detachPipeline();
+            mScheduler.cancel();
+            removeCallbacks(mScrollSettleRunnable);
+            release();
+        } else if (fallback == FALLBACK_NONE) {
+            mFullCaptureRequested = true;
+            attachPipeline();
+        }
+        invalidate();
+    }
+
+    /**
+     * @return the blur radius in buffer pixels used by the last prepare
+     */
+    protected float getScaledRadius() {
+        return mScaledRadius;
+    }
+
     public void setOverlayColor(int color) {
         if (mOverlayColor != color) {
             mOverlayColor = color;
-            invalidate();
+            updateFallback();
+            if (isOverlayFused()) {
+                // The old color is baked into the blurred pixels
+                refresh();
+            } else {
+                invalidate();
+            }
         }
     }
 
@@ -145,169 +548,456 @@ public abstract class BaseBlurView extends View {
         }
     }
 
+    /**
+     * @return the current blurred bitmap, reused or recycled by the view at any time, use
+     * {@link #acquireBlurFrame()} to keep it
+     */
     public Bitmap getBlurredBitmap() {
         return mBlurredBitmap;
     }
 
+    /**
+     * Shares the current blurred frame without copying it. The view does not touch the
+     * frame's bitmap until it is released, it blurs into another buffer meanwhile.
+     * Must be called from the main thread.
+     *
+     * @return the frame, to be released by the caller, or null when nothing is blurred
+     */
+    public BlurFrame acquireBlurFrame() {
+        if (mBlurredBitmap == null) return null;
+        return mFrames.acquire(mBlurredBitmap, mBlurGeneration,
+                1f * mBlurBounds.width() / mBlurredBitmap.getWidth(), mLastBlurTime);
+    }
+
     public int getOverlayColor() {
         return mOverlayColor;
     }
 
     protected void releaseBitmap() {
-        if (mBitmapToBlur != null) {
-            mBitmapToBlur.recycle();
-            mBitmapToBlur = null;
-        }
-        if (mBlurredBitmap != null) {
-            mBlurredBitmap.recycle();
-            mBlurredBitmap = null;
-        }
+        BlurBitmapPool.release(mBitmapToBlur);
+        mBitmapToBlur = null;
+        mFrames.release(mBlurredBitmap);
+        mBlurredBitmap = null;
         mBlurringCanvas = null;
+        mOverlayBaked = false;
+        releasePreviousBitmap();
+        mShape.release();
+        if (mPyramid != null) mPyramid.release();
+    }
+
+    private void releasePreviousBitmap() {
+        mFrames.release(mPreviousBlurredBitmap);
+        mPreviousBlurredBitmap = null;
+        mCrossfading = false;
+    }
+
+    /**
+     * Makes the current blurred frame the previous one, so the next blur is written into
+     * the other buffer and can be crossfaded in.
+     *
+     * @return false when no second buffer could be allocated
+     */
+    private boolean swapForCrossfade() {
+        int width = mBlurredBitmap.getWidth();
+        int height = mBlurredBitmap.getHeight();
+        if (mPreviousBlurredBitmap == null
+                || mPreviousBlurredBitmap.getWidth() != width
+                || mPreviousBlurredBitmap.getHeight() != height) {
+            releasePreviousBitmap();
+            try {
+                mPreviousBlurredBitmap = BlurBitmapPool.acquire(width, height);
+                BlurMemoryManager.onBuffersChanged();
+            } catch (OutOfMemoryError e) {
+                return false;
+            }
+        }
+        Bitmap previous = mBlurredBitmap;
+        mBlurredBitmap = mPreviousBlurredBitmap;
+        mPreviousBlurredBitmap = previous;
+        mCrossfading = true;
+        return true;
     }
 
     public void release() {
+        boolean held = mBlurredBitmap != null;
         releaseBitmap();
+        mScrollTracker.release();
         mBlur.release();
+        if (held) BlurMemoryManager.onBuffersChanged();
+    }
+
+    /**
+     * Registers the scrolling container the blur view sits on (RecyclerView, ScrollView...).
+     * While only this container scrolls, the previous blur result is translated and only
+     * the newly exposed strip is captured and blurred.
+     *
+     * @param container the scrolling container, or null to always blur the full view
+     */
+    public void setScrollingContainer(View container) {
+        mScrollTracker.setContainer(container);
+        mFullCaptureRequested = true;
     }
 
+    private final Runnable mScrollSettleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            // Incremental updates can miss content changes inside the container, redo it once
+            mFullCaptureRequested = true;
+            invalidate();
+        }
+    };
+
     protected boolean prepare() {
-        if (mBlurRadius <= 0) {
+        if (mBlurRadius <= 0 && mPyramid == null) {
             release();
             return false;
         }
 
-        float downsampleFactor = 2.52f;
-        float radius = mBlurRadius / downsampleFactor;
-        if (radius > 25) {
-            downsampleFactor *= radius / 25;
-            radius = 25;
+        BlurQuality quality = getBlurQuality();
+        if (quality != mAppliedQuality) {
+            mBlur.release();
+            mBlur = quality.createBlur();
+            mAppliedQuality = quality;
+            mDirty = true;
+            mFullCaptureRequested = true;
         }
+        mBlur.setTint(isOverlayFused() ? mOverlayColor : 0);
+        mBlur.setVibrancy(canBakeOutput() ? mVibrancy : BlurVibrancy.NONE);
+        mBlur.setColorStats(isColorStatsNeeded() && mBlur.supportsExtensions() ? mColorStats : null);
 
-        int width = getWidth();
-        int height = getHeight();
+        BlurPowerPolicy.Throttle throttle = BlurPowerMonitor.getThrottle();
+        float downsampleFactor = quality.getDownsampleFactor() * throttle.downsampleScale * mMemoryScale;
+        float radius = mBlurRadius;
+        float rateLimit = throttle.maxRate;
+        if (mGovernor != null && mAdaptiveQuality) {
+            downsampleFactor *= mGovernor.getDownsampleScale();
+            radius *= mGovernor.getRadiusScale();
+            rateLimit = BlurFrameScheduler.minRate(rateLimit, mGovernor.getMaxRate());
+        }
+        mScheduler.setRateLimit(rateLimit);
+        radius /= downsampleFactor;
+        int maxRadius = quality.getMaxRadius();
+        if (mPyramid != null) {
+            radius = BlurPyramid.LEVEL_RADIUS;
+        } else if (radius > maxRadius) {
+            downsampleFactor *= radius / maxRadius;
+            radius = maxRadius;
+        }
+
+        int width = mBlurBounds.width();
+        int height = mBlurBounds.height();
         if (width == 0 || height == 0) return false;
 
         int scaledWidth = Math.max(1, Math.round(width / downsampleFactor));
         int scaledHeight = Math.max(1, Math.round(height / downsampleFactor));
 
         boolean dirty = mDirty;
+        int factor = mPyramid != null || hasRadiusMap() || !mBlur.supportsExtensions()
+                ? 1 : Math.max(1, Math.min(mSupersampleFactor, (int) downsampleFactor));
 
         if (mBlurredBitmap == null
                 || mBlurredBitmap.getWidth() != scaledWidth
-                || mBlurredBitmap.getHeight() != scaledHeight) {
+                || mBlurredBitmap.getHeight() != scaledHeight
+                || factor != mReduceFactor) {
             dirty = true;
-            releaseBitmap();
-
-            try {
-                mBitmapToBlur = Bitmap.createBitmap(scaledWidth, scaledHeight, Bitmap.Config.ARGB_8888);
-                mBlurringCanvas = new Canvas(mBitmapToBlur);
-                mBlurredBitmap = Bitmap.createBitmap(scaledWidth, scaledHeight, Bitmap.Config.ARGB_8888);
-
-                // Ensure software bitmaps for compatibility
-                mBitmapToBlur = ensureSoftwareBitmap(mBitmapToBlur);
-                mBlurredBitmap = ensureSoftwareBitmap(mBlurredBitmap);
-            } catch (OutOfMemoryError e) {
-                release();
-                return false;
+            boolean resizing = mBlurredBitmap != null;
+            if (!resizing || !resizeBuffers(scaledWidth, scaledHeight, factor)) {
+                releaseBitmap();
+                mReduceFactor = factor;
+                // A size that changes tends to keep changing, leave it room to grow by half
+                int bytesPerPixel = resizing ? 6 : 4;
+                try {
+                    mBitmapToBlur = BlurBitmapPool.acquire(scaledWidth * factor, scaledHeight * factor,
+                            (long) bytesPerPixel * scaledWidth * factor * scaledHeight * factor);
+                    mBlurringCanvas = new Canvas(mBitmapToBlur);
+                    mBlurredBitmap = BlurBitmapPool.acquire(scaledWidth, scaledHeight,
+                            (long) bytesPerPixel * scaledWidth * scaledHeight);
+                } catch (OutOfMemoryError e) {
+                    release();
+                    return false;
+                }
             }
+            if (resizing) scheduleShrink();
+            BlurMemoryManager.onBuffersChanged();
         }
 
-        if (dirty && mBlur.prepare(mBitmapToBlur, radius)) {
+        if ((dirty || radius != mScaledRadius) && mBlur.prepare(mBitmapToBlur, radius)) {
             mDirty = false;
         }
+        mScaledRadius = radius;
+        if (mPyramid != null) mPyramid.setDownsampleFactor(1f * width / scaledWidth);
 
         return true;
     }
 
-    protected void blur(Bitmap input, Bitmap output) {
+    /**
+     * Fits both buffers to a new size inside their current allocations, so a view whose
+     * size animates does not allocate on every frame.
+     *
+     * @return false when an allocation is too small
+     */
+    private boolean resizeBuffers(int width, int height, int factor) {
+        if (!BlurBitmapPool.fits(mBitmapToBlur, width * factor, height * factor)
+                || !BlurBitmapPool.fits(mBlurredBitmap, width, height)
+                || mFrames.isShared(mBlurredBitmap)) {
+            return false;
+        }
+        BlurBitmapPool.resize(mBitmapToBlur, width * factor, height * factor);
+        BlurBitmapPool.resize(mBlurredBitmap, width, height);
+        mBlurringCanvas.setBitmap(mBitmapToBlur);
+        mReduceFactor = factor;
+        mOverlayBaked = false;
+        mBuffersResized = true;
+        releasePreviousBitmap();
+        mShape.release();
+        return true;
+    }
+
+    /**
+     * Moves blurring to a buffer of its own while the current one is held as a
+     * {@link BlurFrame}, the held buffer is left to its holders.
+     *
+     * @return false when no buffer could be allocated
+     */
+    private boolean detachSharedFrame() {
+        Bitmap bitmap;
         try {
-            // Ensure input is software bitmap
-            Bitmap softwareInput = ensureSoftwareBitmap(input);
-            mBlur.blur(softwareInput, output);
-        } catch (IllegalArgumentException e) {
-            if (e.getMessage() != null &&
-                e.getMessage().contains("Software rendering doesn't support hardware bitmaps")) {
-                Log.e(TAG, "Hardware bitmap error detected, converting and retrying");
-                // Force conversion and retry
-                Bitmap softwareInput = input.copy(Bitmap.Config.ARGB_8888, false);
-                Bitmap softwareOutput = output.copy(Bitmap.Config.ARGB_8888, false);
-                if (softwareInput != null && softwareOutput != null) {
-                    mBlur.blur(softwareInput, softwareOutput);
-                } else {
-                    throw new RuntimeException("Failed to convert hardware bitmaps for blur processing", e);
-                }
-            } else {
-                throw e;
+            bitmap = BlurBitmapPool.acquire(mBlurredBitmap.getWidth(), mBlurredBitmap.getHeight());
+        } catch (OutOfMemoryError e) {
+            return false;
+        }
+        mFrames.release(mBlurredBitmap);
+        mBlurredBitmap = bitmap;
+        mValidRect.setEmpty();
+        mOverlayBaked = false;
+        mShape.release();
+        if (mPyramid != null) mPyramid.invalidate();
+        return true;
+    }
+
+    private void scheduleShrink() {
+        removeCallbacks(mShrinkRunnable);
+        postDelayed(mShrinkRunnable, SHRINK_DELAY_MS);
+    }
+
+    private final Runnable mShrinkRunnable = new Runnable() {
+        @Override
+        public void run() {
+            // The size settled, give back what the buffers kept for growing
+            if (mBlurredBitmap != null && (BlurBitmapPool.isOversized(mBlurredBitmap)
+                    || BlurBitmapPool.isOversized(mBitmapToBlur))) {
+                releaseBitmap();
+                refresh();
             }
         }
+    };
+
+    protected void blur(Bitmap input, Bitmap output) {
+        mBlur.blur(input, output);
     }
 
     public final ViewTreeObserver.OnPreDrawListener preDrawListener = new ViewTreeObserver.OnPreDrawListener() {
         @Override
         public boolean onPreDraw() {
             if (!isShown()) return true;
+            if (mBlurredBitmap != null && (isPaused()
+                    || mBackgroundState == BlurInvalidationTracker.BACKGROUND_OCCLUDED)) {
+                // The result can not be seen right now, blur once more when it can
+                mFullCaptureRequested = true;
+                return true;
+            }
+            computeBlurBounds(mBlurBounds);
+            if (!mBlurBounds.intersect(0, 0, getWidth(), getHeight())) mBlurBounds.setEmpty();
+            if (!getLocalVisibleRect(mVisibleRect) || !mVisibleRect.intersect(mBlurBounds)) {
+                // Scrolled out or clipped away entirely, nothing to capture
+                mFullCaptureRequested = true;
+                return true;
+            }
 
             Bitmap old = mBlurredBitmap;
             View decor = mDecorView;
+            boolean radiusChanged = mDirty;
 
             if (decor != null && prepare()) {
-                boolean redrawBitmap = mBlurredBitmap != old;
+                boolean redrawBitmap = mBlurredBitmap != old || mBuffersResized;
+                mBuffersResized = false;
 
                 int[] locDecor = new int[2];
                 int[] locSelf = new int[2];
                 decor.getLocationOnScreen(locDecor);
                 getLocationOnScreen(locSelf);
 
-                int offsetX = locSelf[0] - locDecor[0];
-                int offsetY = locSelf[1] - locDecor[1];
+                int offsetX = locSelf[0] - locDecor[0] + mBlurBounds.left;
+                int offsetY = locSelf[1] - locDecor[1] + mBlurBounds.top;
 
-                mBitmapToBlur.eraseColor(0);
+                boolean moved = offsetX != mLastOffsetX || offsetY != mLastOffsetY;
+                int state = mBackgroundState;
+                if (mScrollPending && state == BlurInvalidationTracker.BACKGROUND_UNCHANGED) {
+                    state = BlurInvalidationTracker.BACKGROUND_SCROLLED;
+                }
 
-                int saveCount = mBlurringCanvas.save();
-                mIsRendering = true;
-                try {
-                    float scaleX = 1f * mBitmapToBlur.getWidth() / getWidth();
-                    float scaleY = 1f * mBitmapToBlur.getHeight() / getHeight();
-                    mBlurringCanvas.scale(scaleX, scaleY);
-                    mBlurringCanvas.translate(-offsetX, -offsetY);
-
-                    try {
-                        decor.draw(mBlurringCanvas);
-                    } catch (IllegalArgumentException e) {
-                        if (e.getMessage() != null &&
-                            e.getMessage().contains("Software rendering doesn't support hardware bitmaps")) {
-                            Log.w(TAG, "Hardware bitmap detected during draw, converting and retrying");
-                            // Convert hardware bitmaps in the view hierarchy
-                            disableHardwareBitmapsInView(decor);
-                            // Retry the draw
-                            try {
-                                mBlurringCanvas.restoreToCount(saveCount);
-                                saveCount = mBlurringCanvas.save();
-                                mBlurringCanvas.scale(scaleX, scaleY);
-                                mBlurringCanvas.translate(-offsetX, -offsetY);
-                                decor.draw(mBlurringCanvas);
-                            } catch (Exception retryError) {
-                                Log.e(TAG, "Retry after hardware bitmap conversion failed: " + retryError.getMessage());
-                            }
-                        } else {
-                            throw e;
-                        }
+                boolean partial = updateBlurRect();
+
+                if (!redrawBitmap && !radiusChanged && !mFullCaptureRequested && !moved
+                        && state == BlurInvalidationTracker.BACKGROUND_UNCHANGED
+                        && mValidRect.contains(mVisibleRect)) {
+                    // Only this view or its descendants invalidated, the cached blur is still valid
+                    if (mPyramid != null) {
+                        if (mFrames.isShared(mBlurredBitmap) && !detachSharedFrame()) return true;
+                        // The radius may have moved to levels not blurred from this capture yet
+                        mPyramid.update(mBitmapToBlur, mBlurredBitmap, mBlur, mBlurRadius);
+                        if (mFrozen || BlurPowerMonitor.getThrottle().freeze) detachPipeline();
+                    }
+                    return true;
+                }
+
+                if (!redrawBitmap && !mScheduler.tryAcquire()) {
+                    // Over the max blur rate, keep the change for the frame the scheduler lets through
+                    if (state == BlurInvalidationTracker.BACKGROUND_SCROLLED && !radiusChanged && !moved) {
+                        mScrollPending = true;
+                    } else {
+                        mFullCaptureRequested = true;
+                    }
+                    return true;
+                }
+
+                long start = System.nanoTime();
+                if (!redrawBitmap && !radiusChanged && !mFullCaptureRequested && !moved) {
+                    if (state == BlurInvalidationTracker.BACKGROUND_SCROLLED && !partial
+                            && mReduceFactor == 1 && mPyramid == null && !hasRadiusMap()
+                            && mBlur.supportsExtensions()
+                            && !mFrames.isShared(mBlurredBitmap)
+                            && mValidRect.width() == mBlurredBitmap.getWidth()
+                            && mValidRect.height() == mBlurredBitmap.getHeight()
+                            && mScrollTracker.update(mBitmapToBlur, mBlurredBitmap, mBlur,
+                            1f * mBitmapToBlur.getWidth() / mBlurBounds.width(),
+                            1f * mBitmapToBlur.getHeight() / mBlurBounds.height(),
+                            mScaledRadius, clip -> captureDecor(decor, offsetX, offsetY, clip))) {
+                        // The previous frame was not shifted along, it can not be faded from
+                        mCrossfading = false;
+                        mScrollPending = false;
+                        mScheduler.onBlurred();
+                        reportWork(start);
+                        mBlurGeneration++;
+                        mLastBlurTime = SystemClock.uptimeMillis();
+                        removeCallbacks(mScrollSettleRunnable);
+                        postDelayed(mScrollSettleRunnable, SCROLL_SETTLE_DELAY_MS);
+                        return true;
+                    }
+                }
+                mLastOffsetX = offsetX;
+                mLastOffsetY = offsetY;
+
+                boolean swapped = false;
+                if (mCrossfadeEnabled && mPyramid == null && !redrawBitmap && mScheduler.getInterval() > 0) {
+                    swapped = swapForCrossfade();
+                } else {
+                    mCrossfading = false;
+                }
+                // A held frame is not written to, the whole view is blurred into a buffer of its own
+                boolean shared = mFrames.isShared(mBlurredBitmap);
+                if (shared) {
+                    partial = false;
+                    mBlurRect.set(0, 0, mBlurredBitmap.getWidth(), mBlurredBitmap.getHeight());
+                }
+
+                if (!captureDecor(decor, offsetX, offsetY, partial ? mBlurRect : null)) {
+                    // Keep showing the previous frame, the next one captures again
+                    if (swapped) {
+                        Bitmap current = mPreviousBlurredBitmap;
+                        mPreviousBlurredBitmap = mBlurredBitmap;
+                        mBlurredBitmap = current;
+                        mCrossfading = false;
                     }
-                } finally {
-                    mIsRendering = false;
-                    mBlurringCanvas.restoreToCount(saveCount);
+                    mFullCaptureRequested = true;
+                    return true;
+                }
+                if (shared && !detachSharedFrame()) {
+                    mFullCaptureRequested = true;
+                    return true;
                 }
 
-                blur(mBitmapToBlur, mBlurredBitmap);
+                if (mPyramid != null) {
+                    mPyramid.invalidate();
+                    mPyramid.update(mBitmapToBlur, mBlurredBitmap, mBlur, mBlurRadius);
+                    mValidRect.set(0, 0, mBlurredBitmap.getWidth(), mBlurredBitmap.getHeight());
+                } else if (partial) {
+                    mRegionCanvas.setBitmap(mBlurredBitmap);
+                    mRegionCanvas.drawBitmap(mBitmapToBlur, mBlurRect, mBlurRect, mCopyPaint);
+                    mRegionCanvas.setBitmap(null);
+                    mBlur.blurRegion(mBlurredBitmap, mBlurRect);
+                    mValidRect.set(mVisibleRect);
+                } else {
+                    if (mReduceFactor > 1) {
+                        mBlur.blurReduced(mBitmapToBlur, mBlurredBitmap, mReduceFactor);
+                    } else {
+                        blur(mBitmapToBlur, mBlurredBitmap);
+                    }
+                    mValidRect.set(0, 0, mBlurredBitmap.getWidth(), mBlurredBitmap.getHeight());
+                }
+                mOverlayBaked = isOverlayFused();
+                if (!partial && !hasRadiusMap() && isColorStatsNeeded() && mBlur.supportsExtensions()) {
+                    onColorStats(mColorStats);
+                }
+                mScheduler.onBlurred();
+                reportWork(start);
+                mBlurGeneration++;
+                mLastBlurTime = SystemClock.uptimeMillis();
+                mFullCaptureRequested = false;
+                mScrollPending = false;
+                mScrollTracker.reset();
+                if (mDifferentRoot) mBackgroundState = BlurInvalidationTracker.BACKGROUND_UNCHANGED;
 
-                if (redrawBitmap || mDifferentRoot) {
+                if (redrawBitmap || mCrossfading) {
                     postInvalidateOnAnimation();
                 }
+                if (mFrozen || BlurPowerMonitor.getThrottle().freeze) detachPipeline();
             }
             return true;
         }
     };
 
+    /**
+     * Draws the decor into {@link #mBitmapToBlur}.
+     *
+     * @param clip the part of the buffer to redraw, or null for the whole buffer
+     * @return false when drawing failed, the buffer is then incomplete
+     */
+    private boolean captureDecor(View decor, int offsetX, int offsetY, Rect clip) {
+        mIsRendering = true;
+        try {
+            if (drawDecor(decor, offsetX, offsetY, clip)) return true;
+            // A hardware bitmap the scanner did not get to, convert what is captured and draw again
+            if (HardwareBitmapScanner.scanNow(decor) && drawDecor(decor, offsetX, offsetY, clip)) return true;
+            Log.w(TAG, "Capture failed, keeping the previous frame");
+            return false;
+        } finally {
+            mIsRendering = false;
+        }
+    }
+
+    private boolean drawDecor(View decor, int offsetX, int offsetY, Rect clip) {
+        int saveCount = mBlurringCanvas.save();
+        try {
+            if (clip == null) {
+                mBitmapToBlur.eraseColor(0);
+            } else {
+                mBlurringCanvas.clipRect(clip);
+                mBlurringCanvas.drawColor(0, PorterDuff.Mode.CLEAR);
+            }
+            float scaleX = 1f * mBitmapToBlur.getWidth() / mBlurBounds.width();
+            float scaleY = 1f * mBitmapToBlur.getHeight() / mBlurBounds.height();
+            mBlurringCanvas.scale(scaleX, scaleY);
+            mBlurringCanvas.translate(-offsetX, -offsetY);
+            decor.draw(mBlurringCanvas);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        } finally {
+            mBlurringCanvas.restoreToCount(saveCount);
+        }
+    }
+
     public View getActivityDecorView() {
         Context ctx = getContext();
         for (int i = 0; i < 4 && !(ctx instanceof Activity) && ctx instanceof ContextWrapper; i++) {
@@ -316,62 +1006,193 @@ public abstract class BaseBlurView extends View {
         return (ctx instanceof Activity) ? ((Activity) ctx).getWindow().getDecorView() : null;
     }
 
+    /**
+     * Maps the visible part of the blur bounds into the buffer and grows it by a radius
+     * sized halo into {@link #mBlurRect}.
+     *
+     * @return whether less than the whole buffer has to be captured and blurred
+     */
+    private boolean updateBlurRect() {
+        int width = mBlurredBitmap.getWidth();
+        int height = mBlurredBitmap.getHeight();
+        float scaleX = 1f * width / mBlurBounds.width();
+        float scaleY = 1f * height / mBlurBounds.height();
+        mVisibleRect.offset(-mBlurBounds.left, -mBlurBounds.top);
+        mVisibleRect.set((int) Math.floor(mVisibleRect.left * scaleX),
+                (int) Math.floor(mVisibleRect.top * scaleY),
+                Math.min(width, (int) Math.ceil(mVisibleRect.right * scaleX)),
+                Math.min(height, (int) Math.ceil(mVisibleRect.bottom * scaleY)));
+
+        // A frozen blur is not captured again when more of it scrolls into view,
+        // supersampled captures, pyramid levels and radius maps are blurred as a whole
+        if (mFrozen || BlurPowerMonitor.getThrottle().freeze || mReduceFactor > 1 || mPyramid != null
+                || hasRadiusMap()
+                || !mBlur.supportsExtensions()) {
+            mBlurRect.set(0, 0, width, height);
+            return false;
+        }
+
+        int halo = (int) Math.ceil(mScaledRadius) + 1;
+        mBlurRect.set(mVisibleRect);
+        mBlurRect.inset(-halo, -halo);
+        if (!mBlurRect.intersect(0, 0, width, height)) mBlurRect.setEmpty();
+        return mBlurRect.width() < width || mBlurRect.height() < height;
+    }
+
+    private void reportWork(long start) {
+        if (mGovernor != null) mGovernor.report(System.nanoTime() - start);
+    }
+
+    private void attachPipeline() {
+        if (mPipelineAttached || mDecorView == null || mActiveFallback != FALLBACK_NONE) return;
+        mPipelineAttached = true;
+        mBackgroundState = BlurInvalidationTracker.BACKGROUND_CHANGED;
+        if (mDifferentRoot) {
+            // Capture when our own window draws, redraw it only when the source drew
+            HardwareBitmapScanner.register(mDecorView, mScannerClient);
+            mDecorView.getViewTreeObserver().addOnDrawListener(mSourceDrawListener);
+            getViewTreeObserver().addOnPreDrawListener(preDrawListener);
+        } else {
+            HardwareBitmapScanner.register(mDecorView, mScannerClient);
+            BlurInvalidationTracker.register(mDecorView, mTrackerClient);
+            mDecorView.getViewTreeObserver().addOnPreDrawListener(preDrawListener);
+        }
+    }
+
+    private void detachPipeline() {
+        if (!mPipelineAttached) return;
+        mPipelineAttached = false;
+        if (mDifferentRoot) {
+            mDecorView.getViewTreeObserver().removeOnDrawListener(mSourceDrawListener);
+            HardwareBitmapScanner.unregister(mDecorView, mScannerClient);
+            getViewTreeObserver().removeOnPreDrawListener(preDrawListener);
+        } else {
+            mDecorView.getViewTreeObserver().removeOnPreDrawListener(preDrawListener);
+            BlurInvalidationTracker.unregister(mDecorView, mTrackerClient);
+            HardwareBitmapScanner.unregister(mDecorView, mScannerClient);
+        }
+    }
+
     @Override
     protected void onAttachedToWindow() {
         super.onAttachedToWindow();
+        mWindowVisible = getWindowVisibility() == VISIBLE;
+        mWindowFocused = hasWindowFocus();
         mDecorView = getActivityDecorView();
         if (mDecorView != null) {
-            mDecorView.getViewTreeObserver().addOnPreDrawListener(preDrawListener);
             mDifferentRoot = mDecorView.getRootView() != getRootView();
+            mGovernor = BlurQualityGovernor.obtain(mDecorView);
+            BlurPowerMonitor.register(getContext(), mPowerListener);
+            BlurMemoryManager.register(getContext(), mMemoryClient);
+            updateFallback();
+            attachPipeline();
         }
     }
 
     @Override
     protected void onDetachedFromWindow() {
         if (mDecorView != null) {
-            mDecorView.getViewTreeObserver().removeOnPreDrawListener(preDrawListener);
+            detachPipeline();
+            BlurPowerMonitor.unregister(mPowerListener);
             mDecorView = null;
         }
+        mGovernor = null;
+        removeCallbacks(mScrollSettleRunnable);
+        removeCallbacks(mShrinkRunnable);
+        mScheduler.cancel();
         release();
+        BlurMemoryManager.unregister(mMemoryClient);
         super.onDetachedFromWindow();
     }
 
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        boolean visible = visibility == VISIBLE;
+        if (mWindowVisible != visible) {
+            mWindowVisible = visible;
+            onPauseChanged();
+        }
+    }
+
+    @Override
+    public void onWindowFocusChanged(boolean hasWindowFocus) {
+        super.onWindowFocusChanged(hasWindowFocus);
+        if (mWindowFocused != hasWindowFocus) {
+            mWindowFocused = hasWindowFocus;
+            onPauseChanged();
+        }
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        if (mFrozen) refresh();
+    }
+
     @Override
     public void draw(@NonNull Canvas canvas) {
         if (!mIsRendering) super.draw(canvas);
     }
 
     public void drawBlurredBitmap(Canvas canvas) {
+        int width = getWidth();
+        int height = getHeight();
+        mRectDst.set(0, 0, width, height);
+
         if (mBlurredBitmap != null) {
             mRectSrc.set(0, 0, mBlurredBitmap.getWidth(), mBlurredBitmap.getHeight());
-            mRectDst.set(0, 0, getWidth(), getHeight());
 
-            if (mCornerRadius > 0) {
+            if (mCornerRadius > 0 && mPyramid != null) {
+                // Levels blend with each other, so they still need a clip
                 canvas.save();
-                mClipRect.set(mRectDst);
-                Utils.roundedRectPath(mClipRect, mCornerRadius, mG3Path);
-                canvas.clipPath(mG3Path);
-                canvas.drawBitmap(mBlurredBitmap, mRectSrc, mRectDst, null);
+                canvas.clipPath(mShape.getPath(width, height, mCornerRadius));
+                drawBlurredFrame(canvas);
                 canvas.restore();
             } else {
-                canvas.drawBitmap(mBlurredBitmap, mRectSrc, mRectDst, null);
+                drawBlurredFrame(canvas);
             }
         }
 
-        mPaint.setColor(mOverlayColor);
+        // Already blended into the bitmap, nothing to draw over it
+        if (mBlurredBitmap != null && mOverlayBaked) return;
 
+        int overlayColor = mActiveFallback == FALLBACK_SOLID ? mOverlayColor | 0xFF000000 : mOverlayColor;
         if (mCornerRadius > 0) {
-            canvas.save();
-            mClipRect.set(mRectDst);
-            Utils.roundedRectPath(mClipRect, mCornerRadius, mG3Path);
-            canvas.clipPath(mG3Path);
-            canvas.drawRect(mRectDst, mPaint);
-            canvas.restore();
+            mShape.drawColor(canvas, overlayColor, width, height, mCornerRadius);
         } else {
+            mPaint.setColor(overlayColor);
             canvas.drawRect(mRectDst, mPaint);
         }
     }
 
+    private void drawBlurredFrame(Canvas canvas) {
+        if (mPyramid != null) {
+            mPyramid.draw(canvas, mBitmapToBlur, mBlurredBitmap, mRectDst);
+            return;
+        }
+        float progress = mCrossfading ? mScheduler.getCrossfadeProgress() : 1f;
+        if (progress < 1f && mPreviousBlurredBitmap != null) {
+            drawFrameBitmap(canvas, mPreviousBlurredBitmap, 255);
+            drawFrameBitmap(canvas, mBlurredBitmap, Math.round(progress * 255));
+            postInvalidateOnAnimation();
+        } else {
+            mCrossfading = false;
+            drawFrameBitmap(canvas, mBlurredBitmap, 255);
+        }
+    }
+
+    private void drawFrameBitmap(Canvas canvas, Bitmap bitmap, int alpha) {
+        if (mCornerRadius > 0) {
+            mShape.drawBitmap(canvas, bitmap, mRectDst.width(), mRectDst.height(), mCornerRadius, alpha);
+        } else if (alpha == 255) {
+            canvas.drawBitmap(bitmap, mRectSrc, mRectDst, null);
+        } else {
+            mCrossfadePaint.setAlpha(alpha);
+            canvas.drawBitmap(bitmap, mRectSrc, mRectDst, mCrossfadePaint);
+        }
+    }
+
     public void drawPreviewBackground(Canvas canvas) {
         if (getWidth() == 0 || getHeight() == 0) return;
 
@@ -6,22 +6,33 @@ import android.content.ContextWrapper;
 import android.content.res.TypedArray;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Paint;
 import android.graphics.Path;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
 import android.graphics.RectF;
+import android.os.SystemClock;
 import android.util.AttributeSet;
+import android.util.Log;
 import android.util.TypedValue;
 import android.view.View;
 import android.view.ViewTreeObserver;
 
 import com.qmdeve.blurview.Blur;
-import com.qmdeve.blurview.BlurNative;
+import com.qmdeve.blurview.BlurColorStats;
+import com.qmdeve.blurview.BlurQuality;
+import com.qmdeve.blurview.BlurVibrancy;
 import com.qmdeve.blurview.R;
 import com.qmdeve.blurview.util.Utils;
 
 public class BaseBlurViewGroup {
+    private static final String TAG = "BaseBlurViewGroup";
+    private static final long SCROLL_SETTLE_DELAY_MS = 150;
+    private static final long SHRINK_DELAY_MS = 1000;
     private int mOverlayColor;
     private float mBlurRadius;
-    private final Blur mBlur;
+    private Blur mBlur;
     private boolean mDirty = true;
     private Bitmap mBitmapToBlur, mBlurredBitmap;
     private Canvas mBlurringCanvas;
@@ -29,12 +40,151 @@ public class BaseBlurViewGroup {
     private float mCornerRadius;
     private final RectF mClipRect = new RectF();
     private final Path mG3Path = new Path();
+    private final BlurShape mShape = new BlurShape();
+    private final Rect mRectSrc = new Rect();
+    private final Rect mRectDst = new Rect();
+    private final Paint mPaint = new Paint();
+    private int mFallbackMode = BaseBlurView.FALLBACK_NONE;
+    private int mActiveFallback = BaseBlurView.FALLBACK_NONE;
+    private boolean mBuffersResized;
+    private float mMemoryScale = 1f;
+    private final BlurMemoryManager.Client mMemoryClient = new BlurMemoryManager.Client() {
+        @Override
+        public long getBufferBytes() {
+            // The requested sizes, allocations kept for growing go back once the size settles
+            long bytes = mScrollTracker.getByteCount();
+            if (mBitmapToBlur != null) bytes += mBitmapToBlur.getByteCount();
+            if (mBlurredBitmap != null) bytes += mBlurredBitmap.getByteCount();
+            if (mPreviousBlurredBitmap != null) bytes += mPreviousBlurredBitmap.getByteCount();
+            if (mPyramid != null) bytes += mPyramid.getByteCount();
+            return bytes;
+        }
+
+        @Override
+        public float getMemoryScale() {
+            return mMemoryScale;
+        }
+
+        @Override
+        public void setMemoryScale(float scale) {
+            mMemoryScale = scale;
+            // Reallocate instead of shrinking in place, so the step frees memory right away
+            releaseBitmap();
+            refresh();
+        }
+
+        @Override
+        public void trimIfHidden() {
+            if (mBlurredBitmap == null || (mHostView != null && mHostView.isShown() && mWindowVisible)) return;
+            release();
+            mFullCaptureRequested = true;
+            // Frozen views have no listener left that would blur them again once shown
+            attachPipeline();
+        }
+
+        @Override
+        public boolean isBlurring() {
+            // Views that are hidden, clipped away or off the pipeline do not blur on their own
+            return mPipelineAttached && mWindowVisible && mHostView != null && mHostView.isShown()
+                    && mHostView.getLocalVisibleRect(new Rect());
+        }
+    };
     private View mDecorView;
     private boolean mDifferentRoot;
     private View mHostView;
+    private int mBackgroundState = BlurInvalidationTracker.BACKGROUND_CHANGED;
+    private int mBlurGeneration;
+    private long mLastBlurTime;
+    private final BlurFrameHolder mFrames = new BlurFrameHolder();
+    private final int[] mScannerLocation = new int[2];
+    private final HardwareBitmapScanner.Client mScannerClient = outBounds -> {
+        if (mHostView == null || !mHostView.isShown()) {
+            outBounds.setEmpty();
+            return;
+        }
+        mHostView.getLocationOnScreen(mScannerLocation);
+        outBounds.set(0, 0, mHostView.getWidth(), mHostView.getHeight());
+        outBounds.offset(mScannerLocation[0], mScannerLocation[1]);
+    };
+    private int mLastOffsetX, mLastOffsetY;
+    private float mScaledRadius;
+    private boolean mFullCaptureRequested;
+    private boolean mFrozen;
+    private boolean mPipelineAttached;
+    private final BlurScrollTracker mScrollTracker = new BlurScrollTracker();
+    private boolean mScrollPending;
+    private final BlurFrameScheduler mScheduler = new BlurFrameScheduler(() -> {
+        if (mHostView != null) mHostView.invalidate();
+    });
+    private boolean mCrossfadeEnabled;
+    private boolean mCrossfading;
+    private Bitmap mPreviousBlurredBitmap;
+    private final Paint mCrossfadePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private BlurQualityGovernor mGovernor;
+    private boolean mWindowVisible = true;
+    private boolean mWindowFocused = true;
+    private boolean mPauseWhenUnfocused;
+    private final Rect mVisibleRect = new Rect();
+    private int mSupersampleFactor = 1;
+    private BlurQuality mQuality;
+    private BlurPyramid mPyramid;
+    private BlurQuality mAppliedQuality;
+    private int mReduceFactor = 1;
+    private boolean mFusedOverlay;
+    private boolean mOverlayBaked;
+    private BlurVibrancy mVibrancy = BlurVibrancy.NONE;
+    private final BlurColorStats mColorStats = new BlurColorStats();
+    private BlurColorStats.Listener mColorStatsListener;
+    private final Rect mBlurRect = new Rect();
+    private final Rect mValidRect = new Rect();
+    private final Canvas mRegionCanvas = new Canvas();
+    private final Paint mCopyPaint = new Paint();
+    private boolean mAdaptiveQuality = true;
+    private final BlurPowerMonitor.Listener mPowerListener = () -> {
+        updateFallback();
+        mFullCaptureRequested = true;
+        if (!mFrozen) attachPipeline();
+        if (mHostView != null) mHostView.invalidate();
+    };
+
+    private final BlurInvalidationTracker.Client mTrackerClient = new BlurInvalidationTracker.Client() {
+        @Override
+        public View getHostView() {
+            return mHostView;
+        }
+
+        @Override
+        public View getScrollingContainer() {
+            return mScrollTracker.getContainer();
+        }
+
+        @Override
+        public int getBlurGeneration() {
+            return mBlurGeneration;
+        }
+
+        @Override
+        public void onBackgroundChecked(int state) {
+            mBackgroundState = state;
+        }
+    };
+
+    /**
+     * Drives blur views that live in a different root than the source decor (dialogs,
+     * popups). The blur window only re-renders when the source window drew a new frame.
+     */
+    private final ViewTreeObserver.OnDrawListener mSourceDrawListener = new ViewTreeObserver.OnDrawListener() {
+        @Override
+        public void onDraw() {
+            mBackgroundState = BlurInvalidationTracker.BACKGROUND_CHANGED;
+            if (mHostView != null && mHostView.isShown()) mHostView.postInvalidateOnAnimation();
+        }
+    };
 
     public BaseBlurViewGroup(Context context, AttributeSet attrs) {
-        mBlur = new BlurNative();
+        mAppliedQuality = BlurQuality.getDefault();
+        mBlur = mAppliedQuality.createBlur();
+        mCopyPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
         initAttributes(context, attrs);
     }
 
@@ -46,28 +196,316 @@ public class BaseBlurViewGroup {
         );
         mOverlayColor = a.getColor(R.styleable.BlurView_overlayColor, 0xAAFFFFFF);
         mCornerRadius = a.getDimension(R.styleable.BlurView_cornerRadius, 0);
+        mFrozen = a.getBoolean(R.styleable.BlurView_blurFrozen, false);
+        mScheduler.setMaxRate(a.getFloat(R.styleable.BlurView_maxBlurRate, -1));
+        mCrossfadeEnabled = a.getBoolean(R.styleable.BlurView_blurCrossfade, false);
+        mFusedOverlay = a.getBoolean(R.styleable.BlurView_fusedOverlay, false);
+        mFallbackMode = a.getInt(R.styleable.BlurView_blurFallback, BaseBlurView.FALLBACK_NONE);
+        mVibrancy = new BlurVibrancy(a.getFloat(R.styleable.BlurView_blurSaturation, 1f),
+                a.getFloat(R.styleable.BlurView_blurBrightness, 0f),
+                a.getFloat(R.styleable.BlurView_blurContrast, 1f),
+                a.getInt(R.styleable.BlurView_blurGrain, 0));
+        mSupersampleFactor = Math.max(1, Math.min(4, a.getInt(R.styleable.BlurView_supersampleFactor, 1)));
+        if (a.getBoolean(R.styleable.BlurView_blurPyramid, false)) {
+            mPyramid = new BlurPyramid();
+        }
+        if (a.hasValue(R.styleable.BlurView_blurQuality)) {
+            mQuality = BlurQuality.fromAttribute(a.getInt(R.styleable.BlurView_blurQuality, 1));
+        }
         a.recycle();
     }
 
     public void setBlurRadius(float radius) {
         if (mBlurRadius != radius && radius >= 0) {
             mBlurRadius = radius;
-            mDirty = true;
+            // Pyramid levels have fixed radii, only the blend changes
+            if (mPyramid == null) mDirty = true;
+            attachPipeline();
+            if (mHostView != null) {
+                mHostView.invalidate();
+            }
+        }
+    }
+
+    public void setFrozen(boolean frozen) {
+        if (mFrozen != frozen) {
+            mFrozen = frozen;
+            if (!frozen) {
+                attachPipeline();
+            } else if (mBlurredBitmap != null) {
+                detachPipeline();
+            }
+        }
+    }
+
+    public boolean isFrozen() {
+        return mFrozen;
+    }
+
+    public void refresh() {
+        mFullCaptureRequested = true;
+        attachPipeline();
+        if (mHostView != null) {
+            mHostView.invalidate();
+        }
+    }
+
+    public void onSizeChanged(int width, int height) {
+        if (mFrozen) refresh();
+    }
+
+    public void setMaxBlurRate(float rate) {
+        mScheduler.setMaxRate(rate);
+    }
+
+    public float getMaxBlurRate() {
+        return mScheduler.getMaxRate();
+    }
+
+    public static void setDefaultMaxBlurRate(float rate) {
+        BlurFrameScheduler.setDefaultMaxRate(rate);
+    }
+
+    public static float getDefaultMaxBlurRate() {
+        return BlurFrameScheduler.getDefaultMaxRate();
+    }
+
+    public void setCrossfadeEnabled(boolean enabled) {
+        if (mCrossfadeEnabled != enabled) {
+            mCrossfadeEnabled = enabled;
+            if (!enabled) releasePreviousBitmap();
             if (mHostView != null) {
                 mHostView.invalidate();
             }
         }
     }
 
+    public boolean isCrossfadeEnabled() {
+        return mCrossfadeEnabled;
+    }
+
+    public void setAdaptiveQualityEnabled(boolean enabled) {
+        if (mAdaptiveQuality != enabled) {
+            mAdaptiveQuality = enabled;
+            mFullCaptureRequested = true;
+            if (mHostView != null) {
+                mHostView.invalidate();
+            }
+        }
+    }
+
+    public boolean isAdaptiveQualityEnabled() {
+        return mAdaptiveQuality;
+    }
+
+    public void setPauseWhenUnfocused(boolean pause) {
+        if (mPauseWhenUnfocused != pause) {
+            mPauseWhenUnfocused = pause;
+            onPauseChanged();
+        }
+    }
+
+    public boolean isPauseWhenUnfocused() {
+        return mPauseWhenUnfocused;
+    }
+
+    private boolean isPaused() {
+        return !mWindowVisible || (mPauseWhenUnfocused && !mWindowFocused);
+    }
+
+    private void onPauseChanged() {
+        if (!isPaused() && mHostView != null) {
+            mFullCaptureRequested = true;
+            mHostView.invalidate();
+        }
+    }
+
+    public void onWindowVisibilityChanged(int visibility) {
+        boolean visible = visibility == View.VISIBLE;
+        if (mWindowVisible != visible) {
+            mWindowVisible = visible;
+            onPauseChanged();
+        }
+    }
+
+    public void onWindowFocusChanged(boolean hasWindowFocus) {
+        if (mWindowFocused != hasWindowFocus) {
+            mWindowFocused = hasWindowFocus;
+            onPauseChanged();
+        }
+    }
+
+    /**
+     * @param quality the quality of this view, or null to follow {@link BlurQuality#getDefault()}
+     */
+    public void setBlurQuality(BlurQuality quality) {
+        mQuality = quality;
+        mFullCaptureRequested = true;
+        if (mHostView != null) {
+            mHostView.invalidate();
+        }
+    }
+
+    public BlurQuality getBlurQuality() {
+        return mQuality != null ? mQuality : BlurQuality.getDefault();
+    }
+
+    /**
+     * Computes blur levels with fixed radii from each capture and blends the two around
+     * the blur radius. Radius animations then neither reallocate buffers nor capture
+     * again, at the cost of a second, smaller blur buffer per level in use. Only affects
+     * drawing through drawBlurredBitmap, partial, scroll and supersampled updates are off.
+     */
+    public void setBlurPyramidEnabled(boolean enabled) {
+        if (enabled == (mPyramid != null)) return;
+        if (enabled) {
+            mPyramid = new BlurPyramid();
+        } else {
+            mPyramid.release();
+            mPyramid = null;
+        }
+        mDirty = true;
+        mFullCaptureRequested = true;
+        if (mHostView != null) {
+            mHostView.invalidate();
+        }
+    }
+
+    public boolean isBlurPyramidEnabled() {
+        return mPyramid != null;
+    }
+
+    /**
+     * Captures the background at factor times the blur resolution and area averages it
+     * down natively in the first blur pass, which keeps thin content from aliasing.
+     * Costs factor squared more capture memory, and turns off partial and scroll
+     * updates. Limited to the downsample factor, 1 captures at blur resolution.
+     */
+    public void setSupersampleFactor(int factor) {
+        factor = Math.max(1, Math.min(4, factor));
+        if (mSupersampleFactor != factor) {
+            mSupersampleFactor = factor;
+            mFullCaptureRequested = true;
+            if (mHostView != null) {
+                mHostView.invalidate();
+            }
+        }
+    }
+
+    public int getSupersampleFactor() {
+        return mSupersampleFactor;
+    }
+
+    /**
+     * Blends the overlay color into the blurred pixels while they are blurred, so drawing
+     * is a single bitmap draw on the small buffer instead of a bitmap plus a view sized
+     * overlay. Changing the overlay color then blurs again. Not used with the pyramid.
+     */
+    public void setFusedOverlayEnabled(boolean enabled) {
+        if (mFusedOverlay != enabled) {
+            mFusedOverlay = enabled;
+            refresh();
+        }
+    }
+
+    public boolean isFusedOverlayEnabled() {
+        return mFusedOverlay;
+    }
+
+    /**
+     * Adjusts saturation, brightness and contrast of the blurred pixels and adds grain,
+     * while they are blurred. Changing it blurs again. Not used with the pyramid or with
+     * engines that do not support extensions.
+     */
+    public void setVibrancy(BlurVibrancy vibrancy) {
+        if (vibrancy == null) vibrancy = BlurVibrancy.NONE;
+        if (!mVibrancy.equals(vibrancy)) {
+            mVibrancy = vibrancy;
+            refresh();
+        }
+    }
+
+    public BlurVibrancy getVibrancy() {
+        return mVibrancy;
+    }
+
+    /**
+     * Receives the average color, luminance and histogram of the background after every
+     * full blur, summed up by the blur itself. Partial and scroll updates do not report,
+     * nor do engines that do not support extensions.
+     */
+    public void setOnColorStatsListener(BlurColorStats.Listener listener) {
+        mColorStatsListener = listener;
+        if (listener != null) refresh();
+    }
+
+    /**
+     * Whether the tint and vibrancy can be applied by the blur itself. Pyramid levels are
+     * blended with the raw capture, other engines only blur.
+     */
+    private boolean canBakeOutput() {
+        return mPyramid == null && mBlur.supportsExtensions();
+    }
+
+    private boolean isOverlayFused() {
+        return mFusedOverlay && canBakeOutput();
+    }
+
     public void setOverlayColor(int color) {
         if (mOverlayColor != color) {
             mOverlayColor = color;
-            if (mHostView != null) {
+            updateFallback();
+            if (isOverlayFused()) {
+                // The old color is baked into the blurred pixels
+                refresh();
+            } else if (mHostView != null) {
                 mHostView.invalidate();
             }
         }
     }
 
+    /**
+     * @param mode {@link BaseBlurView#FALLBACK_SOLID} or {@link BaseBlurView#FALLBACK_TRANSPARENT}
+     *             to replace the blur, {@link BaseBlurView#FALLBACK_NONE} to blur whenever the
+     *             blur can be seen
+     */
+    public void setFallbackMode(int mode) {
+        if (mFallbackMode != mode) {
+            mFallbackMode = mode;
+            updateFallback();
+            if (mHostView != null) mHostView.invalidate();
+        }
+    }
+
+    public int getFallbackMode() {
+        return mFallbackMode;
+    }
+
+    private int getActiveFallback() {
+        if (mFallbackMode != BaseBlurView.FALLBACK_NONE) return mFallbackMode;
+        if (BlurPowerMonitor.isReduceTransparency() || (mOverlayColor >>> 24) == 0xFF) {
+            return BaseBlurView.FALLBACK_SOLID;
+        }
+        return BaseBlurView.FALLBACK_NONE;
+    }
+
+    private void updateFallback() {
+        int fallback = getActiveFallback();
+        if (fallback == mActiveFallback) return;
+        boolean wasBlurring = mActiveFallback == BaseBlurView.FALLBACK_NONE;
+        mActiveFallback = fallback;
+        if (fallback != BaseBlurView.FALLBACK_NONE && wasBlurring) {
+            detachPipeline();
+            mScheduler.cancel();
+            if (mHostView != null) mHostView.removeCallbacks(mScrollSettleRunnable);
+            release();
+        } else if (fallback == BaseBlurView.FALLBACK_NONE) {
+            mFullCaptureRequested = true;
+            attachPipeline();
+        }
+        if (mHostView != null) mHostView.invalidate();
+    }
+
     public void setCornerRadius(float radius) {
         if (mCornerRadius != radius && radius >= 0) {
             mCornerRadius = radius;
@@ -81,42 +519,125 @@ public class BaseBlurViewGroup {
         return mCornerRadius;
     }
 
+    /**
+     * @return the current blurred bitmap, reused or recycled at any time, use
+     * {@link #acquireBlurFrame()} to keep it
+     */
     public Bitmap getBlurredBitmap() {
         return mBlurredBitmap;
     }
 
+    /**
+     * Shares the current blurred frame without copying it, see
+     * {@link BaseBlurView#acquireBlurFrame()}.
+     */
+    public BlurFrame acquireBlurFrame() {
+        if (mBlurredBitmap == null || mHostView == null) return null;
+        return mFrames.acquire(mBlurredBitmap, mBlurGeneration,
+                1f * mHostView.getWidth() / mBlurredBitmap.getWidth(), mLastBlurTime);
+    }
+
     public int getOverlayColor() {
         return mOverlayColor;
     }
 
     private void releaseBitmap() {
-        if (mBitmapToBlur != null) {
-            mBitmapToBlur.recycle();
-            mBitmapToBlur = null;
-        }
-        if (mBlurredBitmap != null) {
-            mBlurredBitmap.recycle();
-            mBlurredBitmap = null;
-        }
+        BlurBitmapPool.release(mBitmapToBlur);
+        mBitmapToBlur = null;
+        mFrames.release(mBlurredBitmap);
+        mBlurredBitmap = null;
         mBlurringCanvas = null;
+        mOverlayBaked = false;
+        releasePreviousBitmap();
+        mShape.release();
+        if (mPyramid != null) mPyramid.release();
+    }
+
+    private void releasePreviousBitmap() {
+        mFrames.release(mPreviousBlurredBitmap);
+        mPreviousBlurredBitmap = null;
+        mCrossfading = false;
+    }
+
+    private boolean swapForCrossfade() {
+        int width = mBlurredBitmap.getWidth();
+        int height = mBlurredBitmap.getHeight();
+        if (mPreviousBlurredBitmap == null
+                || mPreviousBlurredBitmap.getWidth() != width
+                || mPreviousBlurredBitmap.getHeight() != height) {
+            releasePreviousBitmap();
+            try {
+                mPreviousBlurredBitmap = BlurBitmapPool.acquire(width, height);
+                BlurMemoryManager.onBuffersChanged();
+            } catch (OutOfMemoryError e) {
+                return false;
+            }
+        }
+        Bitmap previous = mBlurredBitmap;
+        mBlurredBitmap = mPreviousBlurredBitmap;
+        mPreviousBlurredBitmap = previous;
+        mCrossfading = true;
+        return true;
     }
 
     public void release() {
+        boolean held = mBlurredBitmap != null;
         releaseBitmap();
+        mScrollTracker.release();
         mBlur.release();
+        if (held) BlurMemoryManager.onBuffersChanged();
+    }
+
+    public void setScrollingContainer(View container) {
+        mScrollTracker.setContainer(container);
+        mFullCaptureRequested = true;
     }
 
+    private final Runnable mScrollSettleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mFullCaptureRequested = true;
+            if (mHostView != null) {
+                mHostView.invalidate();
+            }
+        }
+    };
+
     private boolean prepare(int width, int height) {
-        if (mBlurRadius <= 0) {
+        if (mBlurRadius <= 0 && mPyramid == null) {
             release();
             return false;
         }
 
-        float downsampleFactor = 2.52f;
-        float radius = mBlurRadius / downsampleFactor;
-        if (radius > 25) {
-            downsampleFactor *= radius / 25;
-            radius = 25;
+        BlurQuality quality = getBlurQuality();
+        if (quality != mAppliedQuality) {
+            mBlur.release();
+            mBlur = quality.createBlur();
+            mAppliedQuality = quality;
+            mDirty = true;
+            mFullCaptureRequested = true;
+        }
+        mBlur.setTint(isOverlayFused() ? mOverlayColor : 0);
+        mBlur.setVibrancy(canBakeOutput() ? mVibrancy : BlurVibrancy.NONE);
+        mBlur.setColorStats(mColorStatsListener != null && mBlur.supportsExtensions() ? mColorStats : null);
+
+        BlurPowerPolicy.Throttle throttle = BlurPowerMonitor.getThrottle();
+        float downsampleFactor = quality.getDownsampleFactor() * throttle.downsampleScale * mMemoryScale;
+        float radius = mBlurRadius;
+        float rateLimit = throttle.maxRate;
+        if (mGovernor != null && mAdaptiveQuality) {
+            downsampleFactor *= mGovernor.getDownsampleScale();
+            radius *= mGovernor.getRadiusScale();
+            rateLimit = BlurFrameScheduler.minRate(rateLimit, mGovernor.getMaxRate());
+        }
+        mScheduler.setRateLimit(rateLimit);
+        radius /= downsampleFactor;
+        int maxRadius = quality.getMaxRadius();
+        if (mPyramid != null) {
+            radius = BlurPyramid.LEVEL_RADIUS;
+        } else if (radius > maxRadius) {
+            downsampleFactor *= radius / maxRadius;
+            radius = maxRadius;
         }
 
         if (width == 0 || height == 0) return false;
@@ -125,30 +646,94 @@ public class BaseBlurViewGroup {
         int scaledHeight = Math.max(1, Math.round(height / downsampleFactor));
 
         boolean dirty = mDirty;
+        int factor = mPyramid != null || !mBlur.supportsExtensions()
+                ? 1 : Math.max(1, Math.min(mSupersampleFactor, (int) downsampleFactor));
 
         if (mBlurredBitmap == null
                 || mBlurredBitmap.getWidth() != scaledWidth
-                || mBlurredBitmap.getHeight() != scaledHeight) {
+                || mBlurredBitmap.getHeight() != scaledHeight
+                || factor != mReduceFactor) {
             dirty = true;
-            releaseBitmap();
-
-            try {
-                mBitmapToBlur = Bitmap.createBitmap(scaledWidth, scaledHeight, Bitmap.Config.ARGB_8888);
-                mBlurringCanvas = new Canvas(mBitmapToBlur);
-                mBlurredBitmap = Bitmap.createBitmap(scaledWidth, scaledHeight, Bitmap.Config.ARGB_8888);
-            } catch (OutOfMemoryError e) {
-                release();
-                return false;
+            boolean resizing = mBlurredBitmap != null;
+            if (!resizing || !resizeBuffers(scaledWidth, scaledHeight, factor)) {
+                releaseBitmap();
+                mReduceFactor = factor;
+                // A size that changes tends to keep changing, leave it room to grow by half
+                int bytesPerPixel = resizing ? 6 : 4;
+                try {
+                    mBitmapToBlur = BlurBitmapPool.acquire(scaledWidth * factor, scaledHeight * factor,
+                            (long) bytesPerPixel * scaledWidth * factor * scaledHeight * factor);
+                    mBlurringCanvas = new Canvas(mBitmapToBlur);
+                    mBlurredBitmap = BlurBitmapPool.acquire(scaledWidth, scaledHeight,
+                            (long) bytesPerPixel * scaledWidth * scaledHeight);
+                } catch (OutOfMemoryError e) {
+                    release();
+                    return false;
+                }
             }
+            if (resizing) scheduleShrink();
+            BlurMemoryManager.onBuffersChanged();
         }
 
-        if (dirty && mBlur.prepare(mBitmapToBlur, radius)) {
+        if ((dirty || radius != mScaledRadius) && mBlur.prepare(mBitmapToBlur, radius)) {
             mDirty = false;
         }
+        mScaledRadius = radius;
+        if (mPyramid != null) mPyramid.setDownsampleFactor(1f * width / scaledWidth);
+
+        return true;
+    }
+
+    private boolean resizeBuffers(int width, int height, int factor) {
+        if (!BlurBitmapPool.fits(mBitmapToBlur, width * factor, height * factor)
+                || !BlurBitmapPool.fits(mBlurredBitmap, width, height)
+                || mFrames.isShared(mBlurredBitmap)) {
+            return false;
+        }
+        BlurBitmapPool.resize(mBitmapToBlur, width * factor, height * factor);
+        BlurBitmapPool.resize(mBlurredBitmap, width, height);
+        mBlurringCanvas.setBitmap(mBitmapToBlur);
+        mReduceFactor = factor;
+        mOverlayBaked = false;
+        mBuffersResized = true;
+        releasePreviousBitmap();
+        mShape.release();
+        return true;
+    }
 
+    private boolean detachSharedFrame() {
+        Bitmap bitmap;
+        try {
+            bitmap = BlurBitmapPool.acquire(mBlurredBitmap.getWidth(), mBlurredBitmap.getHeight());
+        } catch (OutOfMemoryError e) {
+            return false;
+        }
+        mFrames.release(mBlurredBitmap);
+        mBlurredBitmap = bitmap;
+        mValidRect.setEmpty();
+        mOverlayBaked = false;
+        mShape.release();
+        if (mPyramid != null) mPyramid.invalidate();
         return true;
     }
 
+    private void scheduleShrink() {
+        if (mHostView == null) return;
+        mHostView.removeCallbacks(mShrinkRunnable);
+        mHostView.postDelayed(mShrinkRunnable, SHRINK_DELAY_MS);
+    }
+
+    private final Runnable mShrinkRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mBlurredBitmap != null && (BlurBitmapPool.isOversized(mBlurredBitmap)
+                    || BlurBitmapPool.isOversized(mBitmapToBlur))) {
+                releaseBitmap();
+                refresh();
+            }
+        }
+    };
+
     private void blur(Bitmap input, Bitmap output) {
         mBlur.blur(input, output);
     }
@@ -157,12 +742,25 @@ public class BaseBlurViewGroup {
         @Override
         public boolean onPreDraw() {
             if (mHostView == null || !mHostView.isShown()) return true;
+            if (mBlurredBitmap != null && (isPaused()
+                    || mBackgroundState == BlurInvalidationTracker.BACKGROUND_OCCLUDED)) {
+                // The result can not be seen right now, blur once more when it can
+                mFullCaptureRequested = true;
+                return true;
+            }
+            if (!mHostView.getLocalVisibleRect(mVisibleRect)) {
+                // Scrolled out or clipped away entirely, nothing to capture
+                mFullCaptureRequested = true;
+                return true;
+            }
 
             Bitmap old = mBlurredBitmap;
             View decor = mDecorView;
+            boolean radiusChanged = mDirty;
 
             if (decor != null && prepare(mHostView.getWidth(), mHostView.getHeight())) {
-                boolean redrawBitmap = mBlurredBitmap != old;
+                boolean redrawBitmap = mBlurredBitmap != old || mBuffersResized;
+                mBuffersResized = false;
 
                 int[] locDecor = new int[2];
                 int[] locSelf = new int[2];
@@ -172,31 +770,167 @@ public class BaseBlurViewGroup {
                 int offsetX = locSelf[0] - locDecor[0];
                 int offsetY = locSelf[1] - locDecor[1];
 
-                mBitmapToBlur.eraseColor(0);
+                boolean moved = offsetX != mLastOffsetX || offsetY != mLastOffsetY;
+                int state = mBackgroundState;
+                if (mScrollPending && state == BlurInvalidationTracker.BACKGROUND_UNCHANGED) {
+                    state = BlurInvalidationTracker.BACKGROUND_SCROLLED;
+                }
 
-                int saveCount = mBlurringCanvas.save();
-                mIsRendering = true;
-                try {
-                    float scaleX = 1f * mBitmapToBlur.getWidth() / mHostView.getWidth();
-                    float scaleY = 1f * mBitmapToBlur.getHeight() / mHostView.getHeight();
-                    mBlurringCanvas.scale(scaleX, scaleY);
-                    mBlurringCanvas.translate(-offsetX, -offsetY);
-                    decor.draw(mBlurringCanvas);
-                } finally {
-                    mIsRendering = false;
-                    mBlurringCanvas.restoreToCount(saveCount);
+                boolean partial = updateBlurRect();
+
+                if (!redrawBitmap && !radiusChanged && !mFullCaptureRequested && !moved
+                        && state == BlurInvalidationTracker.BACKGROUND_UNCHANGED
+                        && mValidRect.contains(mVisibleRect)) {
+                    // Only the host or its children invalidated, the cached blur is still valid
+                    if (mPyramid != null) {
+                        if (mFrames.isShared(mBlurredBitmap) && !detachSharedFrame()) return true;
+                        // The radius may have moved to levels not blurred from this capture yet
+                        mPyramid.update(mBitmapToBlur, mBlurredBitmap, mBlur, mBlurRadius);
+                        if (mFrozen || BlurPowerMonitor.getThrottle().freeze) detachPipeline();
+                    }
+                    return true;
+                }
+
+                if (!redrawBitmap && !mScheduler.tryAcquire()) {
+                    // Over the max blur rate, keep the change for the frame the scheduler lets through
+                    if (state == BlurInvalidationTracker.BACKGROUND_SCROLLED && !radiusChanged && !moved) {
+                        mScrollPending = true;
+                    } else {
+                        mFullCaptureRequested = true;
+                    }
+                    return true;
+                }
+
+                long start = System.nanoTime();
+                if (!redrawBitmap && !radiusChanged && !mFullCaptureRequested && !moved) {
+                    if (state == BlurInvalidationTracker.BACKGROUND_SCROLLED && !partial
+                            && mReduceFactor == 1 && mPyramid == null
+                            && mBlur.supportsExtensions()
+                            && !mFrames.isShared(mBlurredBitmap)
+                            && mValidRect.width() == mBlurredBitmap.getWidth()
+                            && mValidRect.height() == mBlurredBitmap.getHeight()
+                            && mScrollTracker.update(mBitmapToBlur, mBlurredBitmap, mBlur,
+                            1f * mBitmapToBlur.getWidth() / mHostView.getWidth(),
+                            1f * mBitmapToBlur.getHeight() / mHostView.getHeight(),
+                            mScaledRadius, clip -> captureDecor(decor, offsetX, offsetY, clip))) {
+                        mCrossfading = false;
+                        mScrollPending = false;
+                        mScheduler.onBlurred();
+                        reportWork(start);
+                        mBlurGeneration++;
+                        mLastBlurTime = SystemClock.uptimeMillis();
+                        mHostView.removeCallbacks(mScrollSettleRunnable);
+                        mHostView.postDelayed(mScrollSettleRunnable, SCROLL_SETTLE_DELAY_MS);
+                        return true;
+                    }
+                }
+                mLastOffsetX = offsetX;
+                mLastOffsetY = offsetY;
+
+                boolean swapped = false;
+                if (mCrossfadeEnabled && mPyramid == null && !redrawBitmap && mScheduler.getInterval() > 0) {
+                    swapped = swapForCrossfade();
+                } else {
+                    mCrossfading = false;
+                }
+                // A held frame is not written to, the whole view is blurred into a buffer of its own
+                boolean shared = mFrames.isShared(mBlurredBitmap);
+                if (shared) {
+                    partial = false;
+                    mBlurRect.set(0, 0, mBlurredBitmap.getWidth(), mBlurredBitmap.getHeight());
                 }
 
-                blur(mBitmapToBlur, mBlurredBitmap);
+                if (!captureDecor(decor, offsetX, offsetY, partial ? mBlurRect : null)) {
+                    // Keep showing the previous frame, the next one captures again
+                    if (swapped) {
+                        Bitmap current = mPreviousBlurredBitmap;
+                        mPreviousBlurredBitmap = mBlurredBitmap;
+                        mBlurredBitmap = current;
+                        mCrossfading = false;
+                    }
+                    mFullCaptureRequested = true;
+                    return true;
+                }
+                if (shared && !detachSharedFrame()) {
+                    mFullCaptureRequested = true;
+                    return true;
+                }
+
+                if (mPyramid != null) {
+                    mPyramid.invalidate();
+                    mPyramid.update(mBitmapToBlur, mBlurredBitmap, mBlur, mBlurRadius);
+                    mValidRect.set(0, 0, mBlurredBitmap.getWidth(), mBlurredBitmap.getHeight());
+                } else if (partial) {
+                    mRegionCanvas.setBitmap(mBlurredBitmap);
+                    mRegionCanvas.drawBitmap(mBitmapToBlur, mBlurRect, mBlurRect, mCopyPaint);
+                    mRegionCanvas.setBitmap(null);
+                    mBlur.blurRegion(mBlurredBitmap, mBlurRect);
+                    mValidRect.set(mVisibleRect);
+                } else {
+                    if (mReduceFactor > 1) {
+                        mBlur.blurReduced(mBitmapToBlur, mBlurredBitmap, mReduceFactor);
+                    } else {
+                        blur(mBitmapToBlur, mBlurredBitmap);
+                    }
+                    mValidRect.set(0, 0, mBlurredBitmap.getWidth(), mBlurredBitmap.getHeight());
+                }
+                mOverlayBaked = isOverlayFused();
+                if (!partial && mColorStatsListener != null && mBlur.supportsExtensions()) {
+                    mColorStatsListener.onColorStats(mColorStats);
+                }
+                mScheduler.onBlurred();
+                reportWork(start);
+                mBlurGeneration++;
+                mLastBlurTime = SystemClock.uptimeMillis();
+                mFullCaptureRequested = false;
+                mScrollPending = false;
+                mScrollTracker.reset();
+                if (mDifferentRoot) mBackgroundState = BlurInvalidationTracker.BACKGROUND_UNCHANGED;
 
-                if (redrawBitmap || mDifferentRoot) {
+                if (redrawBitmap || mCrossfading) {
                     mHostView.postInvalidateOnAnimation();
                 }
+                if (mFrozen || BlurPowerMonitor.getThrottle().freeze) detachPipeline();
             }
             return true;
         }
     };
 
+    private boolean captureDecor(View decor, int offsetX, int offsetY, Rect clip) {
+        mIsRendering = true;
+        try {
+            if (drawDecor(decor, offsetX, offsetY, clip)) return true;
+            // A hardware bitmap the scanner did not get to, convert what is captured and draw again
+            if (HardwareBitmapScanner.scanNow(decor) && drawDecor(decor, offsetX, offsetY, clip)) return true;
+            Log.w(TAG, "Capture failed, keeping the previous frame");
+            return false;
+        } finally {
+            mIsRendering = false;
+        }
+    }
+
+    private boolean drawDecor(View decor, int offsetX, int offsetY, Rect clip) {
+        int saveCount = mBlurringCanvas.save();
+        try {
+            if (clip == null) {
+                mBitmapToBlur.eraseColor(0);
+            } else {
+                mBlurringCanvas.clipRect(clip);
+                mBlurringCanvas.drawColor(0, PorterDuff.Mode.CLEAR);
+            }
+            float scaleX = 1f * mBitmapToBlur.getWidth() / mHostView.getWidth();
+            float scaleY = 1f * mBitmapToBlur.getHeight() / mHostView.getHeight();
+            mBlurringCanvas.scale(scaleX, scaleY);
+            mBlurringCanvas.translate(-offsetX, -offsetY);
+            decor.draw(mBlurringCanvas);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        } finally {
+            mBlurringCanvas.restoreToCount(saveCount);
+        }
+    }
+
     private View getActivityDecorView() {
         if (mHostView == null) return null;
         Context ctx = mHostView.getContext();
@@ -206,21 +940,101 @@ public class BaseBlurViewGroup {
         return (ctx instanceof Activity) ? ((Activity) ctx).getWindow().getDecorView() : null;
     }
 
+    /**
+     * Maps the visible part of the view into the buffer and grows it by a radius sized halo
+     * into {@link #mBlurRect}.
+     *
+     * @return whether less than the whole buffer has to be captured and blurred
+     */
+    private boolean updateBlurRect() {
+        int width = mBlurredBitmap.getWidth();
+        int height = mBlurredBitmap.getHeight();
+        float scaleX = 1f * width / mHostView.getWidth();
+        float scaleY = 1f * height / mHostView.getHeight();
+        mVisibleRect.set((int) Math.floor(mVisibleRect.left * scaleX),
+                (int) Math.floor(mVisibleRect.top * scaleY),
+                Math.min(width, (int) Math.ceil(mVisibleRect.right * scaleX)),
+                Math.min(height, (int) Math.ceil(mVisibleRect.bottom * scaleY)));
+
+        // A frozen blur is not captured again when more of it scrolls into view,
+        // supersampled captures and pyramid levels are blurred as a whole
+        if (mFrozen || BlurPowerMonitor.getThrottle().freeze || mReduceFactor > 1 || mPyramid != null
+                || !mBlur.supportsExtensions()) {
+            mBlurRect.set(0, 0, width, height);
+            return false;
+        }
+
+        int halo = (int) Math.ceil(mScaledRadius) + 1;
+        mBlurRect.set(mVisibleRect);
+        mBlurRect.inset(-halo, -halo);
+        if (!mBlurRect.intersect(0, 0, width, height)) mBlurRect.setEmpty();
+        return mBlurRect.width() < width || mBlurRect.height() < height;
+    }
+
+    private void reportWork(long start) {
+        if (mGovernor != null) mGovernor.report(System.nanoTime() - start);
+    }
+
+    private void attachPipeline() {
+        if (mPipelineAttached || mDecorView == null || mHostView == null
+                || mActiveFallback != BaseBlurView.FALLBACK_NONE) return;
+        mPipelineAttached = true;
+        mBackgroundState = BlurInvalidationTracker.BACKGROUND_CHANGED;
+        if (mDifferentRoot) {
+            // Capture when our own window draws, redraw it only when the source drew
+            HardwareBitmapScanner.register(mDecorView, mScannerClient);
+            mDecorView.getViewTreeObserver().addOnDrawListener(mSourceDrawListener);
+            mHostView.getViewTreeObserver().addOnPreDrawListener(preDrawListener);
+        } else {
+            HardwareBitmapScanner.register(mDecorView, mScannerClient);
+            BlurInvalidationTracker.register(mDecorView, mTrackerClient);
+            mDecorView.getViewTreeObserver().addOnPreDrawListener(preDrawListener);
+        }
+    }
+
+    private void detachPipeline() {
+        if (!mPipelineAttached) return;
+        mPipelineAttached = false;
+        if (mDifferentRoot) {
+            mDecorView.getViewTreeObserver().removeOnDrawListener(mSourceDrawListener);
+            HardwareBitmapScanner.unregister(mDecorView, mScannerClient);
+            mHostView.getViewTreeObserver().removeOnPreDrawListener(preDrawListener);
+        } else {
+            mDecorView.getViewTreeObserver().removeOnPreDrawListener(preDrawListener);
+            BlurInvalidationTracker.unregister(mDecorView, mTrackerClient);
+            HardwareBitmapScanner.unregister(mDecorView, mScannerClient);
+        }
+    }
+
     public void onAttachedToWindow(View hostView) {
         this.mHostView = hostView;
+        mWindowVisible = hostView.getWindowVisibility() == View.VISIBLE;
+        mWindowFocused = hostView.hasWindowFocus();
         mDecorView = getActivityDecorView();
         if (mDecorView != null) {
-            mDecorView.getViewTreeObserver().addOnPreDrawListener(preDrawListener);
             mDifferentRoot = mDecorView.getRootView() != hostView.getRootView();
+            mGovernor = BlurQualityGovernor.obtain(mDecorView);
+            BlurPowerMonitor.register(hostView.getContext(), mPowerListener);
+            BlurMemoryManager.register(hostView.getContext(), mMemoryClient);
+            updateFallback();
+            attachPipeline();
         }
     }
 
     public void onDetachedFromWindow() {
         if (mDecorView != null) {
-            mDecorView.getViewTreeObserver().removeOnPreDrawListener(preDrawListener);
+            detachPipeline();
+            BlurPowerMonitor.unregister(mPowerListener);
             mDecorView = null;
         }
+        mGovernor = null;
+        if (mHostView != null) {
+            mHostView.removeCallbacks(mScrollSettleRunnable);
+            mHostView.removeCallbacks(mShrinkRunnable);
+        }
+        mScheduler.cancel();
         release();
+        BlurMemoryManager.unregister(mMemoryClient);
         mHostView = null;
     }
 
@@ -229,35 +1043,59 @@ public class BaseBlurViewGroup {
     }
 
     public void drawBlurredBitmap(Canvas canvas, int width, int height) {
+        mRectDst.set(0, 0, width, height);
+
         if (mBlurredBitmap != null) {
-            android.graphics.Rect srcRect = new android.graphics.Rect(0, 0, mBlurredBitmap.getWidth(), mBlurredBitmap.getHeight());
-            android.graphics.Rect dstRect = new android.graphics.Rect(0, 0, width, height);
+            mRectSrc.set(0, 0, mBlurredBitmap.getWidth(), mBlurredBitmap.getHeight());
 
-            if (mCornerRadius > 0) {
+            if (mCornerRadius > 0 && mPyramid != null) {
+                // Levels blend with each other, so they still need a clip
                 canvas.save();
-                mClipRect.set(dstRect);
-                Utils.roundedRectPath(mClipRect, mCornerRadius, mG3Path);
-                canvas.clipPath(mG3Path);
-                canvas.drawBitmap(mBlurredBitmap, srcRect, dstRect, null);
+                canvas.clipPath(mShape.getPath(width, height, mCornerRadius));
+                drawBlurredFrame(canvas);
                 canvas.restore();
             } else {
-                canvas.drawBitmap(mBlurredBitmap, srcRect, dstRect, null);
+                drawBlurredFrame(canvas);
             }
         }
 
-        android.graphics.Paint paint = new android.graphics.Paint();
-        paint.setColor(mOverlayColor);
+        // Already blended into the bitmap, nothing to draw over it
+        if (mBlurredBitmap != null && mOverlayBaked) return;
 
-        android.graphics.Rect dstRect = new android.graphics.Rect(0, 0, width, height);
+        int overlayColor = mActiveFallback == BaseBlurView.FALLBACK_SOLID
+                ? mOverlayColor | 0xFF000000 : mOverlayColor;
         if (mCornerRadius > 0) {
-            canvas.save();
-            mClipRect.set(dstRect);
-            Utils.roundedRectPath(mClipRect, mCornerRadius, mG3Path);
-            canvas.clipPath(mG3Path);
-            canvas.drawRect(dstRect, paint);
-            canvas.restore();
+            mShape.drawColor(canvas, overlayColor, width, height, mCornerRadius);
+        } else {
+            mPaint.setColor(overlayColor);
+            canvas.drawRect(mRectDst, mPaint);
+        }
+    }
+
+    private void drawBlurredFrame(Canvas canvas) {
+        if (mPyramid != null) {
+            mPyramid.draw(canvas, mBitmapToBlur, mBlurredBitmap, mRectDst);
+            return;
+        }
+        float progress = mCrossfading ? mScheduler.getCrossfadeProgress() : 1f;
+        if (progress < 1f && mPreviousBlurredBitmap != null) {
+            drawFrameBitmap(canvas, mPreviousBlurredBitmap, 255);
+            drawFrameBitmap(canvas, mBlurredBitmap, Math.round(progress * 255));
+            if (mHostView != null) mHostView.postInvalidateOnAnimation();
+        } else {
+            mCrossfading = false;
+            drawFrameBitmap(canvas, mBlurredBitmap, 255);
+        }
+    }
+
+    private void drawFrameBitmap(Canvas canvas, Bitmap bitmap, int alpha) {
+        if (mCornerRadius > 0) {
+            mShape.drawBitmap(canvas, bitmap, mRectDst.width(), mRectDst.height(), mCornerRadius, alpha);
+        } else if (alpha == 255) {
+            canvas.drawBitmap(bitmap, mRectSrc, mRectDst, null);
         } else {
-            canvas.drawRect(dstRect, paint);
+            mCrossfadePaint.setAlpha(alpha);
+            canvas.drawBitmap(bitmap, mRectSrc, mRectDst, mCrossfadePaint);
         }
     }
 
@@ -278,8 +1116,13 @@ public class BaseBlurViewGroup {
     }
 
     public void clipCanvasWithRoundedCorner(Canvas canvas, int width, int height) {
-        mClipRect.set(0, 0, width, height);
-        Utils.roundedRectPath(mClipRect, mCornerRadius, mG3Path);
-        canvas.clipPath(mG3Path);
+        canvas.clipPath(getShapePath(width, height));
+    }
+
+    /**
+     * @return the rounded shape for the given size, cached until the size or corner radius changes
+     */
+    public Path getShapePath(int width, int height) {
+        return mShape.getPath(width, height, mCornerRadius);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,154 @@
+package com.qmdeve.blurview.base;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayList;
+
+/**
+ * Process wide pool of ARGB_8888 blur buffers. Bitmaps are allocated with a byte size
+ * rounded up to a bucket, a quarter octave apart, and reconfigured to the requested size
+ * when handed out, so views that resize or attach and detach reuse each other's buffers
+ * instead of allocating new ones. Released bitmaps are kept up to a byte cap, the least
+ * recently released ones are recycled first.
+ * <p>
+ * Must be used from the main thread.
+ */
+public final class BlurBitmapPool {
+
+    private static final long DEFAULT_MAX_SIZE = 16L * 1024 * 1024;
+    private static final int BUCKETS_PER_OCTAVE = 4;
+    private static final long MIN_BUCKET = 4096;
+
+    // Least recently released first
+    private static final ArrayList<Bitmap> sBitmaps = new ArrayList<>();
+    private static long sMaxSize = DEFAULT_MAX_SIZE;
+    private static long sSize;
+
+    private BlurBitmapPool() {}
+
+    /**
+     * @param bytes max bytes kept in released bitmaps, 0 to not pool at all
+     */
+    public static void setMaxSize(long bytes) {
+        sMaxSize = Math.max(0, bytes);
+        trimToSize(sMaxSize);
+    }
+
+    public static long getMaxSize() {
+        return sMaxSize;
+    }
+
+    /**
+     * @return bytes currently held by released bitmaps
+     */
+    public static long getSize() {
+        return sSize;
+    }
+
+    /**
+     * Recycles all pooled bitmaps.
+     */
+    public static void clear() {
+        trimToSize(0);
+    }
+
+    /**
+     * @return a mutable ARGB_8888 bitmap of the given size with transparent pixels
+     * @throws OutOfMemoryError when no bitmap could be allocated
+     */
+    static Bitmap acquire(int width, int height) {
+        return acquire(width, height, 0);
+    }
+
+    /**
+     * Like {@link #acquire(int, int)}, with an allocation of at least the given bytes so
+     * the bitmap can later be {@link #resize(Bitmap, int, int) resized} up to that.
+     */
+    static Bitmap acquire(int width, int height, long minBytes) {
+        long bucket = bucketSize(Math.max(minBytes, 4L * width * height));
+        for (int i = sBitmaps.size() - 1; i >= 0; i--) {
+            Bitmap bitmap = sBitmaps.get(i);
+            if (bucketOf(bitmap.getAllocationByteCount()) != bucket) continue;
+
+            sBitmaps.remove(i);
+            sSize -= bitmap.getAllocationByteCount();
+            bitmap.reconfigure(width, height, Bitmap.Config.ARGB_8888);
+            bitmap.eraseColor(0);
+            return bitmap;
+        }
+
+        // Taller than asked, so the allocation fills the bucket and fits any size in it later
+        int rows = (int) ((bucket / 4 + width - 1) / width);
+        Bitmap bitmap = Bitmap.createBitmap(width, Math.max(height, rows), Bitmap.Config.ARGB_8888);
+        if (bitmap.getHeight() != height) bitmap.reconfigure(width, height, Bitmap.Config.ARGB_8888);
+        return bitmap;
+    }
+
+    /**
+     * Returns a bitmap from {@link #acquire(int, int)} to the pool. It must not be used
+     * by the caller anymore.
+     */
+    static void release(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) return;
+        int bytes = bitmap.getAllocationByteCount();
+        if (!bitmap.isMutable() || bitmap.getConfig() != Bitmap.Config.ARGB_8888 || bytes > sMaxSize) {
+            bitmap.recycle();
+            return;
+        }
+        sBitmaps.add(bitmap);
+        sSize += bytes;
+        trimToSize(sMaxSize);
+    }
+
+    /**
+     * @return whether the bitmap's allocation can hold the given size
+     */
+    static boolean fits(Bitmap bitmap, int width, int height) {
+        return bitmap != null && 4L * width * height <= bitmap.getAllocationByteCount();
+    }
+
+    /**
+     * Changes the size of a bitmap that {@link #fits(Bitmap, int, int) fits} it in place,
+     * its pixels are undefined afterwards. Canvases drawing into it have to be set to it
+     * again.
+     */
+    static void resize(Bitmap bitmap, int width, int height) {
+        if (bitmap.getWidth() != width || bitmap.getHeight() != height) {
+            bitmap.reconfigure(width, height, Bitmap.Config.ARGB_8888);
+        }
+    }
+
+    /**
+     * @return whether the bitmap holds a larger allocation than a new one of its size would
+     */
+    static boolean isOversized(Bitmap bitmap) {
+        return bucketOf(bitmap.getAllocationByteCount())
+                > bucketSize(4L * bitmap.getWidth() * bitmap.getHeight());
+    }
+
+    private static void trimToSize(long maxSize) {
+        while (sSize > maxSize && !sBitmaps.isEmpty()) {
+            Bitmap bitmap = sBitmaps.remove(0);
+            sSize -= bitmap.getAllocationByteCount();
+            bitmap.recycle();
+        }
+    }
+
+    /**
+     * @return the smallest bucket of at least the given bytes
+     */
+    static long bucketSize(long bytes) {
+        if (bytes <= MIN_BUCKET) return MIN_BUCKET;
+        long step = Long.highestOneBit(bytes - 1) / BUCKETS_PER_OCTAVE;
+        return (bytes + step - 1) / step * step;
+    }
+
+    /**
+     * @return the largest bucket an allocation of the given bytes can serve
+     */
+    static long bucketOf(long bytes) {
+        if (bytes <= MIN_BUCKET) return bytes < MIN_BUCKET ? 0 : MIN_BUCKET;
+        long step = Long.highestOneBit(bytes) / BUCKETS_PER_OCTAVE;
+        return bytes / step * step;
+    }
+}
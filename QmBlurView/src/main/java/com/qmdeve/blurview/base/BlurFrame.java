@@ -0,0 +1,93 @@
+package com.qmdeve.blurview.base;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A blurred frame shared with the view that produced it, without copying. The bitmap
+ * is not written to, resized or reused while the frame is held, the view blurs into
+ * other buffers meanwhile. Call {@link #release()} once done with it, from any thread.
+ * Every acquired frame is its own handle and releases its reference once, further
+ * calls are ignored.
+ */
+public final class BlurFrame {
+
+    /**
+     * The buffer shared by all handles of one frame and the view. Only used on the main
+     * thread, the view holds one reference while it uses the bitmap.
+     */
+    static final class Buffer {
+        final Bitmap mBitmap;
+        final long mFrameNumber;
+        final float mScale;
+        final long mTimestamp;
+        int mRefCount = 1;
+
+        Buffer(Bitmap bitmap, long frameNumber, float scale, long timestamp) {
+            mBitmap = bitmap;
+            mFrameNumber = frameNumber;
+            mScale = scale;
+            mTimestamp = timestamp;
+        }
+
+        void release() {
+            if (mRefCount > 0 && --mRefCount == 0) BlurBitmapPool.release(mBitmap);
+        }
+    }
+
+    private static Handler sMainHandler;
+
+    final Buffer mBuffer;
+    private final AtomicBoolean mReleased = new AtomicBoolean();
+
+    BlurFrame(Buffer buffer) {
+        mBuffer = buffer;
+    }
+
+    /**
+     * @return the blurred pixels, valid until the frame is released
+     */
+    public Bitmap getBitmap() {
+        return mBuffer.mBitmap;
+    }
+
+    /**
+     * @return how many blurs the view had run when this frame was produced
+     */
+    public long getFrameNumber() {
+        return mBuffer.mFrameNumber;
+    }
+
+    /**
+     * @return view pixels per bitmap pixel
+     */
+    public float getScale() {
+        return mBuffer.mScale;
+    }
+
+    /**
+     * @return {@link android.os.SystemClock#uptimeMillis()} at the time of the blur
+     */
+    public long getTimestamp() {
+        return mBuffer.mTimestamp;
+    }
+
+    public boolean isReleased() {
+        return mReleased.get();
+    }
+
+    public void release() {
+        if (!mReleased.compareAndSet(false, true)) return;
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            mBuffer.release();
+            return;
+        }
+        synchronized (BlurFrame.class) {
+            if (sMainHandler == null) sMainHandler = new Handler(Looper.getMainLooper());
+        }
+        sMainHandler.post(mBuffer::release);
+    }
+}
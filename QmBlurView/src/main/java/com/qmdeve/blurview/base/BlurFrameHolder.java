@@ -0,0 +1,68 @@
+package com.qmdeve.blurview.base;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayList;
+
+/**
+ * The view's side of {@link BlurFrame}: at most one shared buffer per bitmap, holding the
+ * view's reference. Before a buffer is written to, resized or returned to the pool the
+ * view detaches it here, a buffer whose frames are still held is then left to the
+ * frames' holders and goes to the pool with their last release.
+ * <p>
+ * Must be used from the main thread.
+ */
+final class BlurFrameHolder {
+
+    private final ArrayList<BlurFrame.Buffer> mBuffers = new ArrayList<>(2);
+
+    BlurFrame acquire(Bitmap bitmap, long frameNumber, float scale, long timestamp) {
+        BlurFrame.Buffer buffer = find(bitmap);
+        if (buffer != null && buffer.mFrameNumber != frameNumber) {
+            // Blurred into since, which only happens once nobody else held it
+            mBuffers.remove(buffer);
+            buffer.mRefCount = 0;
+            buffer = null;
+        }
+        if (buffer == null) {
+            buffer = new BlurFrame.Buffer(bitmap, frameNumber, scale, timestamp);
+            mBuffers.add(buffer);
+        }
+        buffer.mRefCount++;
+        return new BlurFrame(buffer);
+    }
+
+    /**
+     * @return whether a frame of the bitmap is held outside the view
+     */
+    boolean isShared(Bitmap bitmap) {
+        BlurFrame.Buffer buffer = find(bitmap);
+        return buffer != null && buffer.mRefCount > 1;
+    }
+
+    /**
+     * Drops the view's reference to the buffer of the bitmap.
+     *
+     * @return whether frames of it are still held, the bitmap then belongs to their holders
+     */
+    boolean detach(Bitmap bitmap) {
+        BlurFrame.Buffer buffer = find(bitmap);
+        if (buffer == null) return false;
+        mBuffers.remove(buffer);
+        return --buffer.mRefCount > 0;
+    }
+
+    /**
+     * Returns the buffer to the pool, unless a held frame keeps it.
+     */
+    void release(Bitmap bitmap) {
+        if (bitmap != null && !detach(bitmap)) BlurBitmapPool.release(bitmap);
+    }
+
+    private BlurFrame.Buffer find(Bitmap bitmap) {
+        for (int i = 0; i < mBuffers.size(); i++) {
+            if (mBuffers.get(i).mBitmap == bitmap) return mBuffers.get(i);
+        }
+        return null;
+    }
+}
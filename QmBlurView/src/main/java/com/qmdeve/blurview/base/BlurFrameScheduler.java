@@ -0,0 +1,122 @@
+package com.qmdeve.blurview.base;
+
+import android.view.Choreographer;
+import android.view.animation.AnimationUtils;
+
+/**
+ * Caps how often a blur view re-blurs its background. Frames that arrive before the
+ * interval elapsed reuse the last blurred frame, the update is then deferred to a
+ * {@link Choreographer} frame callback which invalidates the host on the first vsync
+ * that is due.
+ */
+final class BlurFrameScheduler implements Choreographer.FrameCallback {
+
+    /** Tolerance for vsync jitter, so a 60Hz cap keeps every other frame at 120Hz. */
+    private static final long FRAME_SLOP_MS = 2;
+
+    private static float sDefaultMaxRate;
+
+    private final Runnable mInvalidate;
+    private float mMaxRate = -1;
+    private float mRateLimit;
+    private long mLastBlurTime = -1;
+    private boolean mCallbackPosted;
+
+    BlurFrameScheduler(Runnable invalidate) {
+        mInvalidate = invalidate;
+    }
+
+    static void setDefaultMaxRate(float rate) {
+        sDefaultMaxRate = Math.max(0, rate);
+    }
+
+    static float getDefaultMaxRate() {
+        return sDefaultMaxRate;
+    }
+
+    /**
+     * @param rate max blurs per second, 0 for no limit, negative to use the default
+     */
+    void setMaxRate(float rate) {
+        mMaxRate = rate;
+    }
+
+    float getMaxRate() {
+        return mMaxRate;
+    }
+
+    /**
+     * Additional cap applied on top of the configured rate, used when the blur has to
+     * degrade under load.
+     *
+     * @param rate max blurs per second, 0 for no limit
+     */
+    void setRateLimit(float rate) {
+        mRateLimit = rate;
+    }
+
+    /**
+     * @return min time between two blurs in milliseconds, 0 when not limited
+     */
+    long getInterval() {
+        float rate = mMaxRate >= 0 ? mMaxRate : sDefaultMaxRate;
+        rate = minRate(rate, mRateLimit);
+        return rate > 0 ? Math.round(1000f / rate) : 0;
+    }
+
+    /**
+     * @return the stricter of two rates, where 0 means no limit
+     */
+    static float minRate(float a, float b) {
+        if (a > 0 && b > 0) return Math.min(a, b);
+        return Math.max(a, b);
+    }
+
+    /**
+     * Whether a blur may run in the current frame. When it may not, a frame callback is
+     * posted that invalidates the host once the interval elapsed.
+     */
+    boolean tryAcquire() {
+        long interval = getInterval();
+        if (interval == 0 || mLastBlurTime < 0) return true;
+
+        long elapsed = AnimationUtils.currentAnimationTimeMillis() - mLastBlurTime;
+        if (elapsed + FRAME_SLOP_MS >= interval) return true;
+
+        if (!mCallbackPosted) {
+            mCallbackPosted = true;
+            Choreographer.getInstance().postFrameCallbackDelayed(this,
+                    Math.max(0, interval - elapsed - FRAME_SLOP_MS));
+        }
+        return false;
+    }
+
+    void onBlurred() {
+        mLastBlurTime = AnimationUtils.currentAnimationTimeMillis();
+    }
+
+    /**
+     * @return progress of the crossfade from the previous to the latest blurred frame
+     */
+    float getCrossfadeProgress() {
+        long interval = getInterval();
+        if (interval == 0 || mLastBlurTime < 0) return 1f;
+        long elapsed = AnimationUtils.currentAnimationTimeMillis() - mLastBlurTime;
+        return Math.min(1f, Math.max(0f, 1f * elapsed / interval));
+    }
+
+    void cancel() {
+        if (mCallbackPosted) {
+            mCallbackPosted = false;
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+        mLastBlurTime = -1;
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        // Runs in the animation phase, the invalidate still makes it into this frame's traversal
+        mCallbackPosted = false;
+        mInvalidate.run();
+    }
+}
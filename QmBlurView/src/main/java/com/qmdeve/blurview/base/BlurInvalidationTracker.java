@@ -0,0 +1,321 @@
+package com.qmdeve.blurview.base;
+
+import android.graphics.Rect;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewParent;
+import android.view.ViewTreeObserver;
+
+import java.util.ArrayList;
+import java.util.WeakHashMap;
+
+/**
+ * Decides, once per frame and before any blur view captures the decor, whether
+ * the content behind each blur host actually changed.
+ * <p>
+ * Invalidations raised by the host itself (press animations, thumb drags, text
+ * animators) or by its descendants only dirty the host and its ancestors, so they
+ * are attributed to the host and the cached blurred bitmap can be reused.
+ * The check has to run before the first capture of the frame because drawing
+ * the decor onto the blurring canvas clears the dirty flags it relies on.
+ */
+final class BlurInvalidationTracker implements ViewTreeObserver.OnPreDrawListener {
+
+    static final int BACKGROUND_UNCHANGED = 0;
+    static final int BACKGROUND_CHANGED = 1;
+    /** Only the registered scrolling container changed behind the host. */
+    static final int BACKGROUND_SCROLLED = 2;
+    /** The host is fully covered by an opaque view drawn above it. */
+    static final int BACKGROUND_OCCLUDED = 3;
+
+    interface Client {
+        View getHostView();
+
+        View getScrollingContainer();
+
+        /** Incremented every time the client writes a new blurred frame. */
+        int getBlurGeneration();
+
+        void onBackgroundChecked(int state);
+    }
+
+    private static final WeakHashMap<View, BlurInvalidationTracker> sTrackers = new WeakHashMap<>();
+
+    private final View mDecorView;
+    private final ArrayList<Entry> mEntries = new ArrayList<>();
+    private final ArrayList<View> mPath = new ArrayList<>();
+    private final Rect mHostBounds = new Rect();
+    private final Rect mOtherBounds = new Rect();
+    private final int[] mLocation = new int[2];
+
+    private static final class Entry {
+        final Client client;
+        long signature;
+        int observedGeneration;
+        boolean checked;
+
+        Entry(Client client) {
+            this.client = client;
+        }
+    }
+
+    BlurInvalidationTracker(View decorView) {
+        mDecorView = decorView;
+    }
+
+    /**
+     * Registers a client with the tracker of the given decor. Must be called before the
+     * client adds its own pre-draw listener, so the check always runs first.
+     */
+    static void register(View decorView, Client client) {
+        BlurInvalidationTracker tracker = sTrackers.get(decorView);
+        if (tracker == null) {
+            tracker = new BlurInvalidationTracker(decorView);
+            sTrackers.put(decorView, tracker);
+            decorView.getViewTreeObserver().addOnPreDrawListener(tracker);
+        }
+        tracker.mEntries.add(new Entry(client));
+    }
+
+    static void unregister(View decorView, Client client) {
+        BlurInvalidationTracker tracker = sTrackers.get(decorView);
+        if (tracker == null) return;
+
+        for (int i = tracker.mEntries.size() - 1; i >= 0; i--) {
+            if (tracker.mEntries.get(i).client == client) {
+                tracker.mEntries.remove(i);
+            }
+        }
+
+        if (tracker.mEntries.isEmpty()) {
+            decorView.getViewTreeObserver().removeOnPreDrawListener(tracker);
+            sTrackers.remove(decorView);
+        }
+    }
+
+    @Override
+    public boolean onPreDraw() {
+        int count = mEntries.size();
+        for (int i = 0; i < count; i++) {
+            Entry entry = mEntries.get(i);
+            View host = entry.client.getHostView();
+            if (host == null || !host.isShown()) {
+                entry.checked = false;
+                continue;
+            }
+            int state;
+            if (isOccluded(host)) {
+                // Checked from scratch again once uncovered
+                entry.checked = false;
+                state = BACKGROUND_OCCLUDED;
+            } else {
+                state = checkBackground(entry, host);
+                entry.checked = true;
+            }
+            entry.client.onBackgroundChecked(state);
+        }
+
+        for (int i = 0; i < count; i++) {
+            Entry entry = mEntries.get(i);
+            entry.observedGeneration = entry.client.getBlurGeneration();
+        }
+        return true;
+    }
+
+    private int checkBackground(Entry entry, View host) {
+        if (!entry.checked) {
+            // First frame after attach or after being hidden, nothing to compare with.
+            entry.signature = computeSignature(host);
+            return BACKGROUND_CHANGED;
+        }
+
+        getScreenBounds(host, mHostBounds);
+
+        if (overlapsUpdatedBlurView(entry)) {
+            entry.signature = computeSignature(host);
+            return BACKGROUND_CHANGED;
+        }
+
+        if (!buildPath(host)) {
+            // Hosts in a different root are driven by the source OnDrawListener instead,
+            // this only happens while the host is being moved between parents.
+            return BACKGROUND_CHANGED;
+        }
+
+        View container = entry.client.getScrollingContainer();
+        boolean scrolled = false;
+        long signature = 17;
+        for (int level = mPath.size() - 1; level > 0; level--) {
+            ViewGroup ancestor = (ViewGroup) mPath.get(level);
+            View next = mPath.get(level - 1);
+            signature = mix(signature, ancestor.getScrollX());
+            signature = mix(signature, ancestor.getScrollY());
+
+            // An ancestor is dirty when any descendant invalidates. Invalidations coming
+            // up the host path are attributed to the host.
+            boolean explained = next.isDirty();
+            int childCount = ancestor.getChildCount();
+            for (int i = 0; i < childCount; i++) {
+                View child = ancestor.getChildAt(i);
+                if (child == next) continue;
+
+                signature = mixPlacement(signature, child);
+                if (child.getVisibility() != View.VISIBLE || !child.isDirty()) continue;
+
+                explained = true;
+                getScreenBounds(child, mOtherBounds);
+                if (!Rect.intersects(mHostBounds, mOtherBounds)) continue;
+
+                if (container != null && isScrollOnly(child, container)) {
+                    scrolled = true;
+                } else {
+                    entry.signature = computeSignature(host);
+                    return BACKGROUND_CHANGED;
+                }
+            }
+
+            // Left over dirt is the ancestor's own invalidation or a property change of a child
+            if (ancestor.isDirty() && !explained) {
+                entry.signature = computeSignature(host);
+                return BACKGROUND_CHANGED;
+            }
+        }
+
+        boolean changed = signature != entry.signature;
+        entry.signature = signature;
+        if (changed) return BACKGROUND_CHANGED;
+        return scrolled ? BACKGROUND_SCROLLED : BACKGROUND_UNCHANGED;
+    }
+
+    boolean isOccluded(View host) {
+        if (!buildPath(host)) return false;
+
+        getScreenBounds(host, mHostBounds);
+        for (int level = mPath.size() - 1; level > 0; level--) {
+            ViewGroup ancestor = (ViewGroup) mPath.get(level);
+            View next = mPath.get(level - 1);
+            int nextIndex = ancestor.indexOfChild(next);
+            float nextZ = next.getZ();
+            for (int i = 0, n = ancestor.getChildCount(); i < n; i++) {
+                View child = ancestor.getChildAt(i);
+                if (child == next) continue;
+
+                float z = child.getZ();
+                boolean above = z > nextZ || (z == nextZ && i > nextIndex);
+                if (above && covers(child)) return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean covers(View child) {
+        if (child.getVisibility() != View.VISIBLE || !child.isOpaque()) return false;
+        // Screen bounds below only account for translation
+        if (child.getScaleX() != 1f || child.getScaleY() != 1f || child.getRotation() != 0
+                || child.getRotationX() != 0 || child.getRotationY() != 0) return false;
+
+        getScreenBounds(child, mOtherBounds);
+        return mOtherBounds.contains(mHostBounds);
+    }
+
+    /**
+     * Whether the dirty subtree rooted at {@code dirtyChild} is only dirty because of
+     * the scrolling container inside it.
+     */
+    private boolean isScrollOnly(View dirtyChild, View container) {
+        View current = container;
+        while (current != dirtyChild) {
+            ViewParent parent = current.getParent();
+            if (!(parent instanceof ViewGroup)) return false;
+
+            ViewGroup group = (ViewGroup) parent;
+            boolean explained = current.isDirty();
+            for (int i = 0, n = group.getChildCount(); i < n; i++) {
+                View child = group.getChildAt(i);
+                if (child == current || child.getVisibility() != View.VISIBLE || !child.isDirty()) continue;
+
+                explained = true;
+                getScreenBounds(child, mOtherBounds);
+                if (Rect.intersects(mHostBounds, mOtherBounds)) return false;
+            }
+            if (group.isDirty() && !explained) return false;
+            current = group;
+        }
+        return true;
+    }
+
+    private boolean overlapsUpdatedBlurView(Entry entry) {
+        for (int i = 0, n = mEntries.size(); i < n; i++) {
+            Entry other = mEntries.get(i);
+            if (other == entry || other.client.getBlurGeneration() == other.observedGeneration) continue;
+
+            View otherHost = other.client.getHostView();
+            if (otherHost == null || !otherHost.isShown()) continue;
+
+            getScreenBounds(otherHost, mOtherBounds);
+            if (Rect.intersects(mHostBounds, mOtherBounds)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean buildPath(View host) {
+        mPath.clear();
+        mPath.add(host);
+        ViewParent parent = host.getParent();
+        while (parent instanceof View) {
+            View view = (View) parent;
+            mPath.add(view);
+            if (view == mDecorView) return true;
+            parent = view.getParent();
+        }
+        mPath.clear();
+        return false;
+    }
+
+    long computeSignature(View host) {
+        if (!buildPath(host)) return 0;
+
+        long signature = 17;
+        for (int level = mPath.size() - 1; level > 0; level--) {
+            ViewGroup ancestor = (ViewGroup) mPath.get(level);
+            View next = mPath.get(level - 1);
+            signature = mix(signature, ancestor.getScrollX());
+            signature = mix(signature, ancestor.getScrollY());
+            for (int i = 0, n = ancestor.getChildCount(); i < n; i++) {
+                View child = ancestor.getChildAt(i);
+                if (child != next) signature = mixPlacement(signature, child);
+            }
+        }
+        return signature;
+    }
+
+    /**
+     * Property animations (translation, alpha, scale) on a view only dirty its parent,
+     * so the placement of every sibling along the host path is folded into a signature.
+     */
+    private static long mixPlacement(long signature, View child) {
+        signature = mix(signature, child.getVisibility());
+        signature = mix(signature, child.getLeft());
+        signature = mix(signature, child.getTop());
+        signature = mix(signature, child.getRight());
+        signature = mix(signature, child.getBottom());
+        signature = mix(signature, Float.floatToIntBits(child.getTranslationX()));
+        signature = mix(signature, Float.floatToIntBits(child.getTranslationY()));
+        signature = mix(signature, Float.floatToIntBits(child.getAlpha()));
+        signature = mix(signature, Float.floatToIntBits(child.getScaleX()));
+        signature = mix(signature, Float.floatToIntBits(child.getScaleY()));
+        signature = mix(signature, Float.floatToIntBits(child.getRotation()));
+        return signature;
+    }
+
+    private static long mix(long signature, int value) {
+        return signature * 31 + value;
+    }
+
+    private void getScreenBounds(View view, Rect out) {
+        view.getLocationOnScreen(mLocation);
+        out.set(mLocation[0], mLocation[1], mLocation[0] + view.getWidth(), mLocation[1] + view.getHeight());
+    }
+}
@@ -0,0 +1,180 @@
+package com.qmdeve.blurview.base;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+
+import java.util.ArrayList;
+
+/**
+ * Accounts the buffers of all attached blur views against one byte budget. While the
+ * views hold more than the budget, the largest one is captured with a coarser
+ * downsampling, step by step, and the steps are taken back once usage is well below the
+ * budget again. On {@code onTrimMemory} the bitmap pool and the hardware bitmap copies
+ * are emptied and views that can not be seen free their buffers, they blur again when
+ * they are shown.
+ * <p>
+ * Must be used from the main thread.
+ */
+public final class BlurMemoryManager {
+
+    interface Client {
+        /** Bytes currently held by the view's buffers. */
+        long getBufferBytes();
+
+        /** Extra downsample multiplier, at least 1. */
+        float getMemoryScale();
+
+        /** Applies a new multiplier, frees the buffers and blurs again with it. */
+        void setMemoryScale(float scale);
+
+        /** Frees the buffers if the view can not be seen right now. */
+        void trimIfHidden();
+
+        /** Whether the view blurs on its coming frames, so freed buffers are allocated again. */
+        boolean isBlurring();
+    }
+
+    private static final long DEFAULT_BUDGET = 48L * 1024 * 1024;
+    private static final float SCALE_STEP = 1.25f;
+    private static final float MAX_SCALE = 4f;
+    /** Share of the budget usage has to fall below before a step is taken back. */
+    private static final float RECOVERY = 0.5f;
+
+    private static final ArrayList<Client> sClients = new ArrayList<>();
+    private static long sBudget = DEFAULT_BUDGET;
+    private static Context sContext;
+    // Stepped and not reallocated yet, no further step is taken until it did or stops blurring
+    private static Client sPending;
+
+    private static final ComponentCallbacks2 sCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            trimMemory();
+        }
+
+        @Override
+        public void onLowMemory() {
+            trimMemory();
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+        }
+    };
+
+    private BlurMemoryManager() {}
+
+    /**
+     * @param bytes max bytes all blur views may hold in buffers, 0 for no limit
+     */
+    public static void setBudget(long bytes) {
+        sBudget = Math.max(0, bytes);
+        rebalance();
+    }
+
+    public static long getBudget() {
+        return sBudget;
+    }
+
+    /**
+     * @return bytes held by the buffers of all attached blur views
+     */
+    public static long getUsage() {
+        long usage = 0;
+        for (int i = 0; i < sClients.size(); i++) {
+            usage += sClients.get(i).getBufferBytes();
+        }
+        return usage;
+    }
+
+    /**
+     * @return bytes held by released buffers kept for reuse
+     */
+    public static long getPooledSize() {
+        return BlurBitmapPool.getSize();
+    }
+
+    /**
+     * Frees what can be freed right away, as on a trim memory callback.
+     */
+    public static void trimMemory() {
+        BlurBitmapPool.clear();
+        HardwareBitmapCache.clear();
+        for (int i = sClients.size() - 1; i >= 0; i--) {
+            sClients.get(i).trimIfHidden();
+        }
+    }
+
+    /**
+     * @param context  null to skip the trim memory callbacks
+     */
+    static void register(Context context, Client client) {
+        if (sClients.contains(client)) return;
+        if (sClients.isEmpty() && context != null) {
+            sContext = context.getApplicationContext();
+            sContext.registerComponentCallbacks(sCallbacks);
+        }
+        sClients.add(client);
+    }
+
+    static void unregister(Client client) {
+        if (!sClients.remove(client)) return;
+        if (client == sPending) sPending = null;
+        if (sClients.isEmpty() && sContext != null) {
+            sContext.unregisterComponentCallbacks(sCallbacks);
+            sContext = null;
+        }
+        rebalance();
+    }
+
+    /**
+     * Call after a client allocated or freed buffers.
+     */
+    static void onBuffersChanged() {
+        rebalance();
+    }
+
+    /**
+     * Takes one step at a time, the clients reallocate on their next frame and report
+     * back, which takes the next step if it is still needed. Usage is counted by the
+     * requested buffer sizes, so a step shows up as soon as the client reallocated. A
+     * client that stopped blurring holds nothing until it blurs again, so it is not waited
+     * for.
+     */
+    private static void rebalance() {
+        if (sPending != null) {
+            if (sPending.getBufferBytes() == 0 && sPending.isBlurring()) return;
+            sPending = null;
+        }
+        long usage = getUsage();
+        if (sBudget > 0 && usage > sBudget) {
+            Client largest = null;
+            for (int i = 0; i < sClients.size(); i++) {
+                Client client = sClients.get(i);
+                if (client.getMemoryScale() >= MAX_SCALE) continue;
+                if (largest == null || client.getBufferBytes() > largest.getBufferBytes()) {
+                    largest = client;
+                }
+            }
+            if (largest != null) {
+                sPending = largest;
+                largest.setMemoryScale(Math.min(MAX_SCALE, largest.getMemoryScale() * SCALE_STEP));
+            }
+        } else if (sBudget == 0 || usage < sBudget * RECOVERY) {
+            Client smallest = null;
+            for (int i = 0; i < sClients.size(); i++) {
+                Client client = sClients.get(i);
+                // Released views allocate with their current scale once they blur again
+                if (client.getMemoryScale() <= 1f || client.getBufferBytes() == 0) continue;
+                if (smallest == null || client.getBufferBytes() < smallest.getBufferBytes()) {
+                    smallest = client;
+                }
+            }
+            if (smallest != null) {
+                sPending = smallest;
+                smallest.setMemoryScale(Math.max(1f, smallest.getMemoryScale() / SCALE_STEP));
+            }
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.qmdeve.blurview.base;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Build;
+import android.os.PowerManager;
+
+import java.util.ArrayList;
+
+/**
+ * Throttles all blur views while the device is hot or in battery saver. The state is
+ * read from a {@link StateProvider}, by default backed by {@link PowerManager}, and
+ * turned into a {@link BlurPowerPolicy.Throttle} by the installed policy.
+ * <p>
+ * Also carries the app wide reduce transparency switch, under which blur views draw
+ * their solid fallback and do not blur at all.
+ * <p>
+ * Must be used from the main thread.
+ */
+public final class BlurPowerMonitor {
+
+    /**
+     * Source of the device power state. Replace it with
+     * {@link #setStateProvider(StateProvider)} to drive the throttling from tests.
+     */
+    public interface StateProvider {
+        int getThermalStatus();
+
+        boolean isPowerSaveMode();
+
+        /** Starts reporting state changes to the given callback, on the main thread. */
+        void start(Runnable onChanged);
+
+        void stop();
+    }
+
+    interface Listener {
+        void onThrottleChanged();
+    }
+
+    private static final ArrayList<Listener> sListeners = new ArrayList<>();
+    private static final Runnable sStateChanged = BlurPowerMonitor::update;
+    private static StateProvider sProvider;
+    private static BlurPowerPolicy sPolicy = new BlurPowerPolicy();
+    private static BlurPowerPolicy.Throttle sThrottle = BlurPowerPolicy.Throttle.NONE;
+    private static boolean sEnabled = true;
+    private static boolean sStarted;
+    private static boolean sReduceTransparency;
+
+    private BlurPowerMonitor() {}
+
+    public static void setPolicy(BlurPowerPolicy policy) {
+        sPolicy = policy != null ? policy : new BlurPowerPolicy();
+        update();
+    }
+
+    public static void setStateProvider(StateProvider provider) {
+        if (sStarted) sProvider.stop();
+        sProvider = provider;
+        sStarted = false;
+        if (provider != null && !sListeners.isEmpty()) {
+            start();
+        }
+        update();
+    }
+
+    /**
+     * Turns the throttling on or off for all blur views. Enabled by default.
+     */
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+        update();
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * Draws all blur views as their opaque overlay color instead of blurring, for apps
+     * that offer a reduce transparency setting. Views free their buffers until it is off.
+     */
+    public static void setReduceTransparency(boolean reduce) {
+        if (sReduceTransparency == reduce) return;
+        sReduceTransparency = reduce;
+        notifyListeners();
+    }
+
+    public static boolean isReduceTransparency() {
+        return sReduceTransparency;
+    }
+
+    /**
+     * @return the throttle currently applied to blur views
+     */
+    public static BlurPowerPolicy.Throttle getThrottle() {
+        return sThrottle;
+    }
+
+    static void register(Context context, Listener listener) {
+        if (sProvider == null) {
+            sProvider = new PowerManagerStateProvider(context.getApplicationContext());
+        }
+        sListeners.add(listener);
+        if (!sStarted) {
+            start();
+            update();
+        }
+    }
+
+    static void unregister(Listener listener) {
+        sListeners.remove(listener);
+        if (sListeners.isEmpty() && sStarted) {
+            sStarted = false;
+            sProvider.stop();
+        }
+    }
+
+    private static void start() {
+        sStarted = true;
+        sProvider.start(sStateChanged);
+    }
+
+    private static void update() {
+        BlurPowerPolicy.Throttle throttle = BlurPowerPolicy.Throttle.NONE;
+        if (sEnabled && sProvider != null) {
+            throttle = sPolicy.getThrottle(sProvider.getThermalStatus(), sProvider.isPowerSaveMode());
+            if (throttle == null) throttle = BlurPowerPolicy.Throttle.NONE;
+        }
+        if (throttle.equals(sThrottle)) return;
+
+        sThrottle = throttle;
+        notifyListeners();
+    }
+
+    private static void notifyListeners() {
+        for (int i = sListeners.size() - 1; i >= 0; i--) {
+            sListeners.get(i).onThrottleChanged();
+        }
+    }
+
+    private static final class PowerManagerStateProvider implements StateProvider {
+        private final Context mContext;
+        private final PowerManager mPowerManager;
+        private Runnable mOnChanged;
+
+        private final BroadcastReceiver mPowerSaveReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                if (mOnChanged != null) mOnChanged.run();
+            }
+        };
+
+        private PowerManager.OnThermalStatusChangedListener mThermalListener;
+
+        PowerManagerStateProvider(Context context) {
+            mContext = context;
+            mPowerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        }
+
+        @Override
+        public int getThermalStatus() {
+            if (mPowerManager == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) return 0;
+            return mPowerManager.getCurrentThermalStatus();
+        }
+
+        @Override
+        public boolean isPowerSaveMode() {
+            return mPowerManager != null && mPowerManager.isPowerSaveMode();
+        }
+
+        @Override
+        public void start(Runnable onChanged) {
+            mOnChanged = onChanged;
+            if (mPowerManager == null) return;
+
+            mContext.registerReceiver(mPowerSaveReceiver,
+                    new IntentFilter(PowerManager.ACTION_POWER_SAVE_MODE_CHANGED));
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                mThermalListener = status -> {
+                    if (mOnChanged != null) mOnChanged.run();
+                };
+                mPowerManager.addThermalStatusListener(mThermalListener);
+            }
+        }
+
+        @Override
+        public void stop() {
+            mOnChanged = null;
+            if (mPowerManager == null) return;
+
+            mContext.unregisterReceiver(mPowerSaveReceiver);
+            if (mThermalListener != null) {
+                mPowerManager.removeThermalStatusListener(mThermalListener);
+                mThermalListener = null;
+            }
+        }
+    }
+}
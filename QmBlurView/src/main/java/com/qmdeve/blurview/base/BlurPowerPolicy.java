@@ -0,0 +1,79 @@
+package com.qmdeve.blurview.base;
+
+/**
+ * Maps the device thermal status and battery saver state to how much the blur
+ * pipeline is throttled. Subclass and override {@link #getThrottle(int, boolean)} to
+ * customize, then install it with {@link BlurPowerMonitor#setPolicy(BlurPowerPolicy)}.
+ * <p>
+ * Thermal status values are the {@code PowerManager.THERMAL_STATUS_*} constants.
+ */
+public class BlurPowerPolicy {
+
+    public static final class Throttle {
+        public static final Throttle NONE = new Throttle(1f, 0, false);
+
+        /** Multiplier applied to the downsample factor, at least 1. */
+        public final float downsampleScale;
+        /** Max blurs per second, 0 for no limit. */
+        public final float maxRate;
+        /** Blur once and keep the result until the throttle is lifted. */
+        public final boolean freeze;
+
+        public Throttle(float downsampleScale, float maxRate, boolean freeze) {
+            this.downsampleScale = Math.max(1f, downsampleScale);
+            this.maxRate = Math.max(0, maxRate);
+            this.freeze = freeze;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Throttle)) return false;
+            Throttle other = (Throttle) o;
+            return downsampleScale == other.downsampleScale && maxRate == other.maxRate && freeze == other.freeze;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = Float.floatToIntBits(downsampleScale);
+            result = 31 * result + Float.floatToIntBits(maxRate);
+            return 31 * result + (freeze ? 1 : 0);
+        }
+    }
+
+    static final int THERMAL_STATUS_LIGHT = 1;
+    static final int THERMAL_STATUS_MODERATE = 2;
+    static final int THERMAL_STATUS_SEVERE = 3;
+
+    private static final Throttle POWER_SAVE = new Throttle(1.25f, 30, false);
+    private static final Throttle THERMAL_LIGHT = new Throttle(1f, 30, false);
+    private static final Throttle THERMAL_MODERATE = new Throttle(1.5f, 20, false);
+    private static final Throttle THERMAL_SEVERE = new Throttle(1.5f, 0, true);
+
+    /**
+     * @param thermalStatus  current thermal status
+     * @param powerSaveMode  whether battery saver is on
+     * @return the throttle to apply, {@link Throttle#NONE} to run unthrottled
+     */
+    public Throttle getThrottle(int thermalStatus, boolean powerSaveMode) {
+        Throttle thermal;
+        if (thermalStatus >= THERMAL_STATUS_SEVERE) {
+            thermal = THERMAL_SEVERE;
+        } else if (thermalStatus == THERMAL_STATUS_MODERATE) {
+            thermal = THERMAL_MODERATE;
+        } else if (thermalStatus == THERMAL_STATUS_LIGHT) {
+            thermal = THERMAL_LIGHT;
+        } else {
+            thermal = Throttle.NONE;
+        }
+        return powerSaveMode ? combine(thermal, POWER_SAVE) : thermal;
+    }
+
+    /**
+     * @return a throttle at least as strict as both given ones
+     */
+    protected static Throttle combine(Throttle a, Throttle b) {
+        return new Throttle(Math.max(a.downsampleScale, b.downsampleScale),
+                BlurFrameScheduler.minRate(a.maxRate, b.maxRate), a.freeze || b.freeze);
+    }
+}
@@ -0,0 +1,151 @@
+package com.qmdeve.blurview.base;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+import com.qmdeve.blurview.Blur;
+
+/**
+ * Blur levels with fixed radii, computed from one capture. Level n is the capture area
+ * averaged down by 2^n and blurred with {@link #LEVEL_RADIUS}, so its radius in view
+ * pixels doubles from level to level while every buffer keeps a stable size. A radius in
+ * between two levels is drawn by blending them, which lets the radius animate without
+ * reallocating buffers or capturing again.
+ * <p>
+ * Level 0 is the owner's blurred bitmap, and the unblurred capture stands in for radius 0.
+ * Only the two levels around the current radius are blurred.
+ */
+final class BlurPyramid {
+
+    static final int LEVEL_RADIUS = 8;
+    private static final int LEVELS = 4;
+
+    private final Bitmap[] mLevels = new Bitmap[LEVELS];
+    private final int[] mLevelFrames = new int[LEVELS];
+    private int mFrame = 1;
+    private float mDownsampleFactor = 1;
+    private int mLower = -1;
+    private int mUpper = -1;
+    private float mFraction;
+    private final Paint mBlendPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Rect mSrc = new Rect();
+
+    /**
+     * @param factor view pixels per capture pixel
+     */
+    void setDownsampleFactor(float factor) {
+        mDownsampleFactor = factor;
+    }
+
+    /**
+     * Marks all levels stale after a new capture.
+     */
+    void invalidate() {
+        mFrame++;
+    }
+
+    /**
+     * Blurs the levels the radius needs that are not up to date with the capture yet.
+     *
+     * @param radius blur radius in view pixels
+     * @return whether any level was blurred
+     */
+    boolean update(Bitmap capture, Bitmap level0, Blur blur, float radius) {
+        select(radius);
+        boolean lower = ensure(mLower, capture, level0, blur);
+        boolean upper = ensure(mUpper, capture, level0, blur);
+        return lower || upper;
+    }
+
+    void draw(Canvas canvas, Bitmap capture, Bitmap level0, Rect dst) {
+        Bitmap lower = getLevel(mLower, capture, level0);
+        if (lower == null) return;
+
+        mSrc.set(0, 0, lower.getWidth(), lower.getHeight());
+        canvas.drawBitmap(lower, mSrc, dst, null);
+
+        Bitmap upper = getLevel(mUpper, capture, level0);
+        if (upper != null && upper != lower && mFraction > 0) {
+            mSrc.set(0, 0, upper.getWidth(), upper.getHeight());
+            mBlendPaint.setAlpha(Math.round(mFraction * 255));
+            canvas.drawBitmap(upper, mSrc, dst, mBlendPaint);
+        }
+    }
+
+    /**
+     * @return bytes held by the levels above level 0
+     */
+    long getByteCount() {
+        long bytes = 0;
+        for (Bitmap level : mLevels) {
+            if (level != null) bytes += level.getByteCount();
+        }
+        return bytes;
+    }
+
+    void release() {
+        for (int i = 0; i < LEVELS; i++) {
+            BlurBitmapPool.release(mLevels[i]);
+            mLevels[i] = null;
+        }
+        mFrame++;
+    }
+
+    private void select(float radius) {
+        float levelRadius = LEVEL_RADIUS * mDownsampleFactor;
+        float lowerRadius = 0;
+        mLower = -1;
+        for (int i = 0; i < LEVELS; i++, levelRadius *= 2) {
+            if (radius < levelRadius) {
+                mUpper = i;
+                mFraction = (radius - lowerRadius) / (levelRadius - lowerRadius);
+                return;
+            }
+            mLower = i;
+            lowerRadius = levelRadius;
+        }
+        mUpper = mLower;
+        mFraction = 0;
+    }
+
+    private boolean ensure(int level, Bitmap capture, Bitmap level0, Blur blur) {
+        if (level < 0 || mLevelFrames[level] == mFrame) return false;
+
+        if (level == 0) {
+            blur.blur(capture, level0);
+        } else {
+            Bitmap output = obtainLevel(level, capture);
+            if (output == null) return false;
+            blur.blurReduced(capture, output, 1 << level);
+        }
+        mLevelFrames[level] = mFrame;
+        return true;
+    }
+
+    private Bitmap obtainLevel(int level, Bitmap capture) {
+        int factor = 1 << level;
+        int width = (capture.getWidth() + factor - 1) / factor;
+        int height = (capture.getHeight() + factor - 1) / factor;
+
+        Bitmap bitmap = mLevels[level];
+        if (bitmap != null && bitmap.getWidth() == width && bitmap.getHeight() == height) {
+            return bitmap;
+        }
+        BlurBitmapPool.release(bitmap);
+        try {
+            bitmap = BlurBitmapPool.acquire(width, height);
+        } catch (OutOfMemoryError e) {
+            bitmap = null;
+        }
+        mLevels[level] = bitmap;
+        return bitmap;
+    }
+
+    private Bitmap getLevel(int level, Bitmap capture, Bitmap level0) {
+        if (level < 0) return capture;
+        if (level == 0) return level0;
+        return mLevelFrames[level] == mFrame ? mLevels[level] : null;
+    }
+}
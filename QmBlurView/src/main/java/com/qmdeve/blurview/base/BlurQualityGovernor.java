@@ -0,0 +1,118 @@
+package com.qmdeve.blurview.base;
+
+import android.view.Display;
+import android.view.View;
+import android.view.animation.AnimationUtils;
+
+import java.util.WeakHashMap;
+
+/**
+ * Keeps the time all blur views of a window spend capturing and blurring within a
+ * share of the UI thread. The load is measured over a short window, when it is over
+ * budget the quality level steps up (coarser downsampling, then a lower blur rate,
+ * then a smaller radius), and steps back down only when the predicted load at the
+ * previous level leaves enough headroom.
+ */
+final class BlurQualityGovernor {
+
+    private static final long WINDOW_MS = 500;
+    /** Share of the UI thread blurring may take. */
+    private static final float BUDGET = 0.25f;
+    /** Share of the budget the previous level has to fit in before stepping back. */
+    private static final float HEADROOM = 0.7f;
+    private static final int RECOVERY_WINDOWS = 2;
+
+    private static final float[] DOWNSAMPLE_SCALES = {1f, 1.25f, 1.5f, 1.5f, 2f};
+    private static final float[] RADIUS_SCALES = {1f, 1f, 1f, 1f, 0.8f};
+    private static final float[] MAX_RATES = {0, 0, 0, 30, 30};
+
+    private static final WeakHashMap<View, BlurQualityGovernor> sGovernors = new WeakHashMap<>();
+
+    private float mRefreshRate = 60;
+    private int mLevel;
+    private long mWindowStart = -1;
+    private long mWorkNanos;
+    private int mGoodWindows;
+
+    BlurQualityGovernor() {}
+
+    static BlurQualityGovernor obtain(View decorView) {
+        BlurQualityGovernor governor = sGovernors.get(decorView);
+        if (governor == null) {
+            governor = new BlurQualityGovernor();
+            sGovernors.put(decorView, governor);
+        }
+        Display display = decorView.getDisplay();
+        if (display != null && display.getRefreshRate() > 0) {
+            governor.setRefreshRate(display.getRefreshRate());
+        }
+        return governor;
+    }
+
+    void setRefreshRate(float refreshRate) {
+        mRefreshRate = refreshRate;
+    }
+
+    int getLevel() {
+        return mLevel;
+    }
+
+    float getDownsampleScale() {
+        return DOWNSAMPLE_SCALES[mLevel];
+    }
+
+    float getRadiusScale() {
+        return RADIUS_SCALES[mLevel];
+    }
+
+    /**
+     * @return max blurs per second at the current level, 0 for no limit
+     */
+    float getMaxRate() {
+        return MAX_RATES[mLevel];
+    }
+
+    /**
+     * Reports the time one blur view spent capturing and blurring in the current frame.
+     */
+    void report(long workNanos) {
+        report(workNanos, AnimationUtils.currentAnimationTimeMillis());
+    }
+
+    void report(long workNanos, long now) {
+        if (mWindowStart < 0) mWindowStart = now;
+        mWorkNanos += workNanos;
+
+        long elapsed = now - mWindowStart;
+        if (elapsed < WINDOW_MS) return;
+
+        float load = mWorkNanos / (elapsed * 1000000f);
+        if (load > BUDGET) {
+            if (mLevel < DOWNSAMPLE_SCALES.length - 1) mLevel++;
+            mGoodWindows = 0;
+        } else if (mLevel > 0 && load * costRatio(mLevel - 1, mLevel) < BUDGET * HEADROOM) {
+            if (++mGoodWindows >= RECOVERY_WINDOWS) {
+                mLevel--;
+                mGoodWindows = 0;
+            }
+        } else {
+            mGoodWindows = 0;
+        }
+        mWindowStart = now;
+        mWorkNanos = 0;
+    }
+
+    /**
+     * Estimated cost of level {@code to} relative to level {@code from}, blur work scales
+     * with the buffer area and with the number of blurred frames.
+     */
+    private float costRatio(int to, int from) {
+        float area = DOWNSAMPLE_SCALES[from] / DOWNSAMPLE_SCALES[to];
+        return area * area * effectiveRate(to) / effectiveRate(from);
+    }
+
+    private float effectiveRate(int level) {
+        float rate = MAX_RATES[level];
+        return rate > 0 ? Math.min(rate, mRefreshRate) : mRefreshRate;
+    }
+}
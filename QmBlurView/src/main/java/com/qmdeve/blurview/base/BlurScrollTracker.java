@@ -0,0 +1,234 @@
+package com.qmdeve.blurview.base;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+import android.view.View;
+import android.view.ViewGroup;
+
+import com.qmdeve.blurview.Blur;
+import com.qmdeve.blurview.BlurNative;
+
+/**
+ * Keeps a blurred buffer up to date while a registered scrolling container moves
+ * underneath the blur view. A pure translation shifts the previous capture and blur
+ * result, only the newly exposed strip plus a radius sized halo is captured and blurred.
+ * <p>
+ * The translation is measured on a child of the container rather than on its scroll
+ * offset, which covers both ScrollView style containers and RecyclerView, whose
+ * scroll offset is only an estimate.
+ */
+final class BlurScrollTracker {
+
+    interface Capture {
+        /** Captures the decor into the blur input, limited to the given buffer rect. */
+        void capture(Rect clip);
+    }
+
+    private View mContainer;
+    private View mAnchor;
+    private int mAnchorX, mAnchorY;
+    private int mContainerX, mContainerY;
+    private float mResidualX, mResidualY;
+    private float mExactX, mExactY;
+    private int mShiftX, mShiftY;
+    private Bitmap mBandBitmap;
+    private Canvas mBandCanvas;
+    private final Canvas mBlurredCanvas = new Canvas();
+    private final Paint mCopyPaint = new Paint();
+    private final Rect mExposed = new Rect();
+    private final Rect mRefresh = new Rect();
+    private final Rect mBand = new Rect();
+    private final Rect mBandLocal = new Rect();
+    private final Rect mRefreshLocal = new Rect();
+    private final int[] mLocation = new int[2];
+
+    BlurScrollTracker() {
+        mCopyPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+    }
+
+    void setContainer(View container) {
+        mContainer = container;
+        mAnchor = null;
+    }
+
+    View getContainer() {
+        return mContainer;
+    }
+
+    /**
+     * Records the scroll state a full capture was taken at.
+     */
+    void reset() {
+        mResidualX = 0;
+        mResidualY = 0;
+        mAnchor = null;
+
+        if (!(mContainer instanceof ViewGroup) || !mContainer.isAttachedToWindow()) return;
+
+        ViewGroup group = (ViewGroup) mContainer;
+        int count = group.getChildCount();
+        if (count == 0) return;
+
+        // A child from the middle is the least likely to be recycled within one frame
+        mAnchor = group.getChildAt(count / 2);
+        mAnchorX = anchorX();
+        mAnchorY = anchorY();
+        mContainer.getLocationOnScreen(mLocation);
+        mContainerX = mLocation[0];
+        mContainerY = mLocation[1];
+    }
+
+    /**
+     * Tries to bring the buffers up to date by translating them.
+     *
+     * @return false when the change is not a pure translation along one axis, a full
+     * capture is required then
+     */
+    boolean update(Bitmap toBlur, Bitmap blurred, Blur blur, float scaleX, float scaleY,
+                   float radius, Capture capture) {
+        if (mAnchor == null || mAnchor.getParent() != mContainer) return false;
+
+        mContainer.getLocationOnScreen(mLocation);
+        if (mLocation[0] != mContainerX || mLocation[1] != mContainerY) return false;
+
+        int dx = anchorX() - mAnchorX;
+        int dy = anchorY() - mAnchorY;
+        int width = blurred.getWidth();
+        int height = blurred.getHeight();
+        if (!computeShift(dx, dy, scaleX, scaleY, width, height)) return false;
+
+        int shiftX = mShiftX;
+        int shiftY = mShiftY;
+        if (shiftX == 0 && shiftY == 0) {
+            commit(dx, dy);
+            return true;
+        }
+
+        if (shiftY > 0) {
+            mExposed.set(0, 0, width, shiftY);
+        } else if (shiftY < 0) {
+            mExposed.set(0, height + shiftY, width, height);
+        } else if (shiftX > 0) {
+            mExposed.set(0, 0, shiftX, height);
+        } else {
+            mExposed.set(width + shiftX, 0, width, height);
+        }
+
+        // Pixels next to the old buffer edge were blurred against clamped data, refresh
+        // them as well, and feed the blur one more halo of unblurred input
+        int halo = (int) Math.ceil(radius) + 1;
+        mRefresh.set(mExposed);
+        mRefresh.inset(-halo, -halo);
+        clampTo(mRefresh, width, height);
+        mBand.set(mRefresh);
+        mBand.inset(-halo, -halo);
+        clampTo(mBand, width, height);
+
+        // Before anything is shifted, so a failure leaves the buffers as they were
+        if (!ensureBand(mBand.width(), mBand.height())) return false;
+
+        commit(dx, dy);
+        BlurNative.shift(toBlur, shiftX, shiftY);
+        BlurNative.shift(blurred, shiftX, shiftY);
+        capture.capture(mExposed);
+
+        mBandLocal.set(0, 0, mBand.width(), mBand.height());
+        mBandCanvas.drawBitmap(toBlur, mBand, mBandLocal, mCopyPaint);
+        blur.blurRegion(mBandBitmap, mBandLocal, mBand.left, mBand.top);
+
+        mRefreshLocal.set(mRefresh);
+        mRefreshLocal.offset(-mBand.left, -mBand.top);
+        mBlurredCanvas.setBitmap(blurred);
+        mBlurredCanvas.drawBitmap(mBandBitmap, mRefreshLocal, mRefresh, mCopyPaint);
+        mBlurredCanvas.setBitmap(null);
+        return true;
+    }
+
+    /**
+     * Converts an anchor move into a shift of whole buffer pixels, see
+     * {@link #getShiftX()} and {@link #getShiftY()}. Nothing is recorded until
+     * {@link #commit(int, int)}.
+     *
+     * @return false when the move is not along one axis or shifts by half the buffer or more
+     */
+    boolean computeShift(int dx, int dy, float scaleX, float scaleY, int width, int height) {
+        if ((dx == 0) == (dy == 0)) return false;
+
+        // Keep the rounding error below half a buffer pixel across the whole scroll
+        mExactX = dx * scaleX + mResidualX;
+        mExactY = dy * scaleY + mResidualY;
+        mShiftX = Math.round(mExactX);
+        mShiftY = Math.round(mExactY);
+        return Math.abs(mShiftX) * 2 < width && Math.abs(mShiftY) * 2 < height;
+    }
+
+    int getShiftX() {
+        return mShiftX;
+    }
+
+    int getShiftY() {
+        return mShiftY;
+    }
+
+    /**
+     * Records the move of the last {@link #computeShift} as applied to the buffers.
+     */
+    void commit(int dx, int dy) {
+        mResidualX = mExactX - mShiftX;
+        mResidualY = mExactY - mShiftY;
+        mAnchorX += dx;
+        mAnchorY += dy;
+    }
+
+    long getByteCount() {
+        return mBandBitmap != null ? mBandBitmap.getByteCount() : 0;
+    }
+
+    void release() {
+        releaseBand();
+        mAnchor = null;
+    }
+
+    private void releaseBand() {
+        BlurBitmapPool.release(mBandBitmap);
+        mBandBitmap = null;
+        mBandCanvas = null;
+    }
+
+    /**
+     * Fits the band to the refreshed strip and its halo. Strips vary with the scroll
+     * speed, the band keeps room for twice its size so it is resized in place.
+     */
+    private boolean ensureBand(int width, int height) {
+        if (BlurBitmapPool.fits(mBandBitmap, width, height)) {
+            BlurBitmapPool.resize(mBandBitmap, width, height);
+            mBandCanvas.setBitmap(mBandBitmap);
+            return true;
+        }
+        releaseBand();
+        try {
+            mBandBitmap = BlurBitmapPool.acquire(width, height, 8L * width * height);
+            mBandCanvas = new Canvas(mBandBitmap);
+            return true;
+        } catch (OutOfMemoryError e) {
+            return false;
+        }
+    }
+
+    private int anchorX() {
+        return mAnchor.getLeft() + Math.round(mAnchor.getTranslationX()) - mContainer.getScrollX();
+    }
+
+    private int anchorY() {
+        return mAnchor.getTop() + Math.round(mAnchor.getTranslationY()) - mContainer.getScrollY();
+    }
+
+    private static void clampTo(Rect rect, int width, int height) {
+        rect.set(Math.max(0, rect.left), Math.max(0, rect.top),
+                Math.min(width, rect.right), Math.min(height, rect.bottom));
+    }
+}
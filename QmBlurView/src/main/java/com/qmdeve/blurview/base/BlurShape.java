@@ -0,0 +1,79 @@
+package com.qmdeve.blurview.base;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.RectF;
+import android.graphics.Shader;
+
+import com.qmdeve.blurview.util.Utils;
+
+/**
+ * Rounded shape of a blur view. The path is only rebuilt when the size or corner radius
+ * changes, and bitmaps are drawn through it with a {@link BitmapShader}, so rounded
+ * corners cost one anti-aliased draw and no clip.
+ */
+final class BlurShape {
+
+    private final Path mPath = new Path();
+    private final RectF mRect = new RectF();
+    private float mRadius = -1;
+    private final Paint mBitmapPaint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG);
+    private final Paint mColorPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Matrix mMatrix = new Matrix();
+    // Two shaders, so swapping crossfade buffers does not create new ones
+    private final Bitmap[] mShaderBitmaps = new Bitmap[2];
+    private final BitmapShader[] mShaders = new BitmapShader[2];
+    private int mNextShader;
+
+    Path getPath(int width, int height, float radius) {
+        if (mRect.right != width || mRect.bottom != height || mRadius != radius) {
+            mRect.set(0, 0, width, height);
+            mRadius = radius;
+            Utils.roundedRectPath(mRect, radius, mPath);
+        }
+        return mPath;
+    }
+
+    /**
+     * Draws the bitmap scaled to the view size, inside the shape.
+     */
+    void drawBitmap(Canvas canvas, Bitmap bitmap, int width, int height, float radius, int alpha) {
+        BitmapShader shader = obtainShader(bitmap);
+        mMatrix.setScale(1f * width / bitmap.getWidth(), 1f * height / bitmap.getHeight());
+        shader.setLocalMatrix(mMatrix);
+        mBitmapPaint.setShader(shader);
+        mBitmapPaint.setAlpha(alpha);
+        canvas.drawPath(getPath(width, height, radius), mBitmapPaint);
+    }
+
+    void drawColor(Canvas canvas, int color, int width, int height, float radius) {
+        mColorPaint.setColor(color);
+        canvas.drawPath(getPath(width, height, radius), mColorPaint);
+    }
+
+    /**
+     * Drops the shaders, call when the bitmaps they draw are recycled.
+     */
+    void release() {
+        for (int i = 0; i < mShaders.length; i++) {
+            mShaders[i] = null;
+            mShaderBitmaps[i] = null;
+        }
+        mBitmapPaint.setShader(null);
+    }
+
+    private BitmapShader obtainShader(Bitmap bitmap) {
+        for (int i = 0; i < mShaders.length; i++) {
+            if (mShaderBitmaps[i] == bitmap) return mShaders[i];
+        }
+        int index = mNextShader;
+        mNextShader = (mNextShader + 1) % mShaders.length;
+        mShaderBitmaps[index] = bitmap;
+        mShaders[index] = new BitmapShader(bitmap, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP);
+        return mShaders[index];
+    }
+}
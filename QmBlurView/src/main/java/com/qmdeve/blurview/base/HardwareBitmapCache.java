@@ -0,0 +1,97 @@
+package com.qmdeve.blurview.base;
+
+import android.graphics.Bitmap;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+
+/**
+ * Software copies of HARDWARE bitmaps, which can not be drawn into the software canvas
+ * the decor is captured with. Copies are keyed by the identity of their source, so a
+ * bitmap that is shown again, for example by a recycled list item, is not copied again.
+ * Copies are kept up to a byte cap, the least recently used ones are dropped first.
+ * Dropped copies are not recycled since views may still show them.
+ * <p>
+ * Must be used from the main thread.
+ */
+public final class HardwareBitmapCache {
+
+    private static final long DEFAULT_MAX_SIZE = 16L * 1024 * 1024;
+
+    private static final class Entry {
+        // Weak so the cache does not keep the graphics memory of the source alive
+        final WeakReference<Bitmap> source;
+        final Bitmap copy;
+
+        Entry(Bitmap source, Bitmap copy) {
+            this.source = new WeakReference<>(source);
+            this.copy = copy;
+        }
+    }
+
+    // Least recently used first
+    private static final ArrayList<Entry> sEntries = new ArrayList<>();
+    private static long sMaxSize = DEFAULT_MAX_SIZE;
+    private static long sSize;
+
+    private HardwareBitmapCache() {}
+
+    /**
+     * @param bytes max bytes kept in copies, 0 to not keep any
+     */
+    public static void setMaxSize(long bytes) {
+        sMaxSize = Math.max(0, bytes);
+        trimToSize(sMaxSize);
+    }
+
+    public static long getMaxSize() {
+        return sMaxSize;
+    }
+
+    /**
+     * @return bytes currently held by copies
+     */
+    public static long getSize() {
+        return sSize;
+    }
+
+    public static void clear() {
+        trimToSize(0);
+    }
+
+    /**
+     * @return a software copy of the hardware bitmap, or null when none could be made
+     */
+    static Bitmap getSoftwareCopy(Bitmap hardware) {
+        for (int i = sEntries.size() - 1; i >= 0; i--) {
+            Entry entry = sEntries.get(i);
+            Bitmap source = entry.source.get();
+            if (source == null || source.isRecycled()) {
+                sEntries.remove(i);
+                sSize -= entry.copy.getByteCount();
+            } else if (source == hardware) {
+                sEntries.remove(i);
+                sEntries.add(entry);
+                return entry.copy;
+            }
+        }
+
+        Bitmap copy;
+        try {
+            copy = hardware.copy(Bitmap.Config.ARGB_8888, false);
+        } catch (OutOfMemoryError e) {
+            return null;
+        }
+        if (copy == null) return null;
+        sEntries.add(new Entry(hardware, copy));
+        sSize += copy.getByteCount();
+        trimToSize(sMaxSize);
+        return copy;
+    }
+
+    private static void trimToSize(long maxSize) {
+        while (sSize > maxSize && !sEntries.isEmpty()) {
+            sSize -= sEntries.remove(0).copy.getByteCount();
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.qmdeve.blurview.base;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
+import android.widget.ImageView;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Swaps HARDWARE bitmaps shown by image views under a blur view for software copies from
+ * {@link HardwareBitmapCache} before the decor is captured, so the capture does not fail
+ * on them. Views outside every capture area are left alone, the capture skips them.
+ * The decor is walked once, after that only views that are new or invalidated since the
+ * last frame are looked at: setting a drawable or adding a view dirties it and its
+ * ancestors, so clean subtrees are skipped as a whole. Image views with a hardware bitmap
+ * outside the capture areas are kept and checked again as they move.
+ * <p>
+ * Converted views get their original drawable back once no blur view captures them
+ * anymore, unless the app set another drawable meanwhile.
+ * <p>
+ * Like {@link BlurInvalidationTracker} it has to run before any capture of the frame,
+ * drawing the decor clears the dirty flags it relies on.
+ */
+final class HardwareBitmapScanner implements ViewTreeObserver.OnPreDrawListener {
+
+    interface Client {
+        /** Sets the part of the screen the client captures, empty for none. */
+        void getCaptureBounds(Rect outBounds);
+    }
+
+    private static final class Conversion {
+        final Drawable original;
+        final Drawable replacement;
+
+        Conversion(Drawable original, Drawable replacement) {
+            this.original = original;
+            this.replacement = replacement;
+        }
+    }
+
+    private static final WeakHashMap<View, HardwareBitmapScanner> sScanners = new WeakHashMap<>();
+
+    private final View mDecorView;
+    private final ArrayList<Client> mClients = new ArrayList<>();
+    private final ArrayList<Rect> mBounds = new ArrayList<>();
+    private final Set<View> mKnown = Collections.newSetFromMap(new WeakHashMap<>());
+    // Showing a hardware bitmap outside the capture areas when last looked at
+    private final Set<ImageView> mCandidates = Collections.newSetFromMap(new WeakHashMap<>());
+    private final WeakHashMap<ImageView, Conversion> mConverted = new WeakHashMap<>();
+    private final Rect mViewBounds = new Rect();
+    private final int[] mLocation = new int[2];
+    private boolean mFullScan = true;
+
+    HardwareBitmapScanner(View decorView) {
+        mDecorView = decorView;
+    }
+
+    /**
+     * Must be called before the client adds its own pre-draw listener.
+     */
+    static void register(View decorView, Client client) {
+        // Hardware bitmaps were introduced in Android O (API 26)
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) return;
+        HardwareBitmapScanner scanner = sScanners.get(decorView);
+        if (scanner == null) {
+            scanner = new HardwareBitmapScanner(decorView);
+            sScanners.put(decorView, scanner);
+            decorView.getViewTreeObserver().addOnPreDrawListener(scanner);
+        }
+        scanner.mClients.add(client);
+    }
+
+    static void unregister(View decorView, Client client) {
+        HardwareBitmapScanner scanner = sScanners.get(decorView);
+        if (scanner == null || !scanner.mClients.remove(client)) return;
+        scanner.restore();
+        if (scanner.mClients.isEmpty()) {
+            decorView.getViewTreeObserver().removeOnPreDrawListener(scanner);
+            sScanners.remove(decorView);
+        }
+    }
+
+    /**
+     * Looks at every view right away, for when a capture still failed.
+     *
+     * @return whether a view was converted, so capturing again can succeed
+     */
+    static boolean scanNow(View decorView) {
+        HardwareBitmapScanner scanner = sScanners.get(decorView);
+        return scanner != null && scanner.run(true);
+    }
+
+    @Override
+    public boolean onPreDraw() {
+        boolean full = mFullScan;
+        mFullScan = false;
+        run(full);
+        return true;
+    }
+
+    private boolean run(boolean full) {
+        updateBounds();
+        scan(mDecorView, full);
+        return convertCandidates();
+    }
+
+    private void updateBounds() {
+        while (mBounds.size() < mClients.size()) mBounds.add(new Rect());
+        for (int i = 0; i < mClients.size(); i++) {
+            mClients.get(i).getCaptureBounds(mBounds.get(i));
+        }
+    }
+
+    private void scan(View view, boolean full) {
+        boolean known = !mKnown.add(view);
+        if (known && !full && !view.isDirty()) return;
+
+        if (view instanceof ImageView && hardwareBitmapOf((ImageView) view) != null) {
+            mCandidates.add((ImageView) view);
+        }
+        if (view instanceof ViewGroup) {
+            ViewGroup group = (ViewGroup) view;
+            for (int i = 0, n = group.getChildCount(); i < n; i++) {
+                scan(group.getChildAt(i), full);
+            }
+        }
+    }
+
+    private boolean convertCandidates() {
+        boolean converted = false;
+        for (Iterator<ImageView> it = mCandidates.iterator(); it.hasNext(); ) {
+            ImageView view = it.next();
+            Bitmap bitmap = hardwareBitmapOf(view);
+            if (bitmap == null || !view.isAttachedToWindow()) {
+                it.remove();
+                continue;
+            }
+            if (!isCaptured(view)) continue;
+
+            Bitmap copy = HardwareBitmapCache.getSoftwareCopy(bitmap);
+            if (copy == null) continue;
+            convert(view, copy);
+            it.remove();
+            converted = true;
+        }
+        return converted;
+    }
+
+    /**
+     * Shows the copy in a drawable of its own. setImageBitmap would put it into the
+     * drawable the view may already hold from the app, which then could not be restored.
+     */
+    void convert(ImageView view, Bitmap copy) {
+        Drawable original = view.getDrawable();
+        Drawable replacement = new BitmapDrawable(view.getResources(), copy);
+        view.setImageDrawable(replacement);
+        mConverted.put(view, new Conversion(original, replacement));
+    }
+
+    /**
+     * Gives converted views that no client captures anymore their original drawable back.
+     */
+    void restore() {
+        updateBounds();
+        for (Iterator<Map.Entry<ImageView, Conversion>> it = mConverted.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<ImageView, Conversion> entry = it.next();
+            ImageView view = entry.getKey();
+            if (view == null || (view.isAttachedToWindow() && isCaptured(view))) continue;
+
+            Conversion conversion = entry.getValue();
+            if (view.getDrawable() == conversion.replacement && isUsable(conversion.original)) {
+                view.setImageDrawable(conversion.original);
+            }
+            it.remove();
+        }
+    }
+
+    private boolean isCaptured(View view) {
+        view.getLocationOnScreen(mLocation);
+        mViewBounds.set(mLocation[0], mLocation[1],
+                mLocation[0] + view.getWidth(), mLocation[1] + view.getHeight());
+        for (int i = 0; i < mClients.size(); i++) {
+            if (Rect.intersects(mBounds.get(i), mViewBounds)) return true;
+        }
+        return false;
+    }
+
+    private static Bitmap hardwareBitmapOf(ImageView view) {
+        Drawable drawable = view.getDrawable();
+        if (!(drawable instanceof BitmapDrawable)) return null;
+        Bitmap bitmap = ((BitmapDrawable) drawable).getBitmap();
+        return bitmap != null && bitmap.getConfig() == Bitmap.Config.HARDWARE ? bitmap : null;
+    }
+
+    private static boolean isUsable(Drawable drawable) {
+        if (!(drawable instanceof BitmapDrawable)) return drawable != null;
+        Bitmap bitmap = ((BitmapDrawable) drawable).getBitmap();
+        return bitmap != null && !bitmap.isRecycled();
+    }
+}
@@ -223,6 +223,15 @@ public class BlurSwitchButtonView extends BlurView {
         float thumbMargin = h * 0.15f;
         thumbStartX = thumbMargin + thumbRadius;
         thumbEndX = w - thumbMargin - thumbRadius;
+
+        // Shapes only depend on the size, the thumb is built around the origin and translated
+        buildG3RoundedRectPath(mTrackPath, w, h, h / 2f);
+        buildG3RoundedCirclePath(mThumbPath, 0, 0, thumbRadius);
+        mHighlightPaint.setShader(new LinearGradient(
+                -thumbRadius * 0.6f, 0, thumbRadius * 0.6f, 0,
+                new int[]{0x00FFFFFF, 0x33FFFFFF, 0x00FFFFFF},
+                null, Shader.TileMode.CLAMP
+        ));
     }
 
     private void updateThumbPositionToCurrentState(boolean animate) {
@@ -250,12 +259,12 @@ public class BlurSwitchButtonView extends BlurView {
         }
     }
 
-    private Path createG3RoundedRectPath(float right, float bottom, float radius) {
-        Path path = new Path();
+    private static void buildG3RoundedRectPath(Path path, float right, float bottom, float radius) {
+        path.reset();
 
         if (radius <= 0) {
             path.addRect((float) 0, (float) 0, right, bottom, Path.Direction.CW);
-            return path;
+            return;
         }
 
         float maxRadius = Math.min((right - (float) 0) / 2, (bottom - (float) 0) / 2);
@@ -297,15 +306,14 @@ public class BlurSwitchButtonView extends BlurView {
         );
 
         path.close();
-        return path;
     }
 
-    private Path createG3RoundedCirclePath(float centerX, float centerY, float radius) {
-        Path path = new Path();
+    private static void buildG3RoundedCirclePath(Path path, float centerX, float centerY, float radius) {
+        path.reset();
 
         if (radius <= 0) {
             path.addCircle(centerX, centerY, 1, Path.Direction.CW);
-            return path;
+            return;
         }
 
         final float controlOffset = radius * 0.5522847498f;
@@ -337,7 +345,6 @@ public class BlurSwitchButtonView extends BlurView {
         );
 
         path.close();
-        return path;
     }
 
     @Override
@@ -360,30 +367,20 @@ public class BlurSwitchButtonView extends BlurView {
 
         if (thumbCenterX < thumbStartX) thumbCenterX = thumbStartX;
         if (thumbCenterX > thumbEndX) thumbCenterX = thumbEndX;
-        float trackRadius = h / 2f;
-        mTrackPath.reset();
-        mTrackPath.set(createG3RoundedRectPath(w, h, trackRadius));
         mTrackPaint.setColor(mCurrentTrackColor);
         canvas.drawPath(mTrackPath, mTrackPaint);
 
-        mThumbPath.reset();
-        mThumbPath.set(createG3RoundedCirclePath(thumbCenterX, h / 2f, thumbRadius));
+        canvas.save();
+        canvas.translate(thumbCenterX, h / 2f);
         mThumbPaint.setColor(0xBFFFFFFF);
         canvas.drawPath(mThumbPath, mThumbPaint);
 
-        if (thumbRadius > 0) {
-            float highlightLeft = thumbCenterX - thumbRadius * 0.6f;
-            float highlightRight = thumbCenterX + thumbRadius * 0.6f;
-            @SuppressLint("DrawAllocation")
-            LinearGradient highlightGradient = new LinearGradient(
-                    highlightLeft, 0, highlightRight, 0,
-                    new int[]{0x00FFFFFF, 0x33FFFFFF, 0x00FFFFFF},
-                    null, Shader.TileMode.CLAMP
-            );
-            mHighlightPaint.setShader(highlightGradient);
-            mHighlightPaint.setAlpha((int) (mHighlightAlpha * 255));
+        int highlightAlpha = (int) (mHighlightAlpha * 255);
+        if (thumbRadius > 0 && highlightAlpha > 0) {
+            mHighlightPaint.setAlpha(highlightAlpha);
             canvas.drawPath(mThumbPath, mHighlightPaint);
         }
+        canvas.restore();
     }
 
     @SuppressLint("ClickableViewAccessibility")
@@ -567,6 +564,7 @@ public class BlurSwitchButtonView extends BlurView {
             this.mUseSolidColorMode = useSolidColorMode;
             calculateColors();
             mCurrentTrackColor = getTargetTrackColor();
+            updateFallback();
             invalidate();
         }
     }
@@ -575,6 +573,14 @@ public class BlurSwitchButtonView extends BlurView {
         return mUseSolidColorMode;
     }
 
+    @Override
+    protected int getActiveFallback() {
+        int fallback = super.getActiveFallback();
+        // Solid tracks bring their own colors, nothing behind them needs a blur
+        if (fallback == FALLBACK_NONE && mUseSolidColorMode) return FALLBACK_TRANSPARENT;
+        return fallback;
+    }
+
     public void setSolidColors(int onColor, int offColor) {
         this.mSolidOnColor = onColor;
         this.mSolidOffColor = offColor;
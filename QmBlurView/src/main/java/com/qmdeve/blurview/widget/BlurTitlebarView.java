@@ -16,6 +16,7 @@ import androidx.annotation.Nullable;
 import androidx.core.content.ContextCompat;
 import androidx.core.graphics.drawable.DrawableCompat;
 
+import com.qmdeve.blurview.BlurColorStats;
 import com.qmdeve.blurview.R;
 import com.qmdeve.blurview.util.Utils;
 
@@ -38,6 +39,15 @@ public class BlurTitlebarView extends BlurView {
     private float mSubtitleOffsetX = 0f;
     private ValueAnimator mTitleAnimator;
     private ValueAnimator mSubtitleAnimator;
+    private static final int AUTO_TITLE = 1;
+    private static final int AUTO_SUBTITLE = 1 << 1;
+    private static final int AUTO_MENU_TEXT = 1 << 2;
+    private static final int AUTO_BACK_ICON = 1 << 3;
+    private static final int AUTO_MENU_ICON = 1 << 4;
+    // Colors that were not set and follow the background
+    private int mAutoColors;
+    private boolean mDarkBackground;
+    private boolean mAdaptiveTextColor;
 
     public interface OnBackClickListener {
         void onBackClick();
@@ -71,6 +81,7 @@ public class BlurTitlebarView extends BlurView {
         mSubtitleColor = a.getColor(R.styleable.BlurTitlebarView_subtitleTextColor, Color.TRANSPARENT);
         mShowBack = a.getBoolean(R.styleable.BlurTitlebarView_showBack, false);
         mCenterTitle = a.getBoolean(R.styleable.BlurTitlebarView_centerTitle, false);
+        mAdaptiveTextColor = a.getBoolean(R.styleable.BlurTitlebarView_adaptiveTextColor, false);
 
         if (mCenterTitle) {
             if (getWidth() == 0 || mTitle == null) {
@@ -106,18 +117,66 @@ public class BlurTitlebarView extends BlurView {
 
     private void updateTextColorByOverlay() {
         int brightness = (int) (Color.red(getOverlayColor()) * 0.299 + Color.green(getOverlayColor()) * 0.587 + Color.blue(getOverlayColor()) * 0.114);
-        boolean isDark = brightness < 128;
-        int autoColor = isDark ? Color.WHITE : Color.BLACK;
-        if (mTitleColor == Color.TRANSPARENT) mTitleColor = autoColor;
-        if (mSubtitleColor == Color.TRANSPARENT) mSubtitleColor = adjustAlpha(autoColor, 0.7f);
-        if (mMenuTextColor == Color.TRANSPARENT) mMenuTextColor = autoColor;
-        if (mBackIconTint == Color.TRANSPARENT) mBackIconTint = autoColor;
-        if (mMenuIconTint == Color.TRANSPARENT) mMenuIconTint = autoColor;
+        mDarkBackground = brightness < 128;
+        if (mTitleColor == Color.TRANSPARENT) mAutoColors |= AUTO_TITLE;
+        if (mSubtitleColor == Color.TRANSPARENT) mAutoColors |= AUTO_SUBTITLE;
+        if (mMenuTextColor == Color.TRANSPARENT) mAutoColors |= AUTO_MENU_TEXT;
+        if (mBackIconTint == Color.TRANSPARENT) mAutoColors |= AUTO_BACK_ICON;
+        if (mMenuIconTint == Color.TRANSPARENT) mAutoColors |= AUTO_MENU_ICON;
+        applyAutoColors();
+    }
+
+    private void applyAutoColors() {
+        int autoColor = mDarkBackground ? Color.WHITE : Color.BLACK;
+        if ((mAutoColors & AUTO_TITLE) != 0) mTitleColor = autoColor;
+        if ((mAutoColors & AUTO_SUBTITLE) != 0) mSubtitleColor = adjustAlpha(autoColor, 0.7f);
+        if ((mAutoColors & AUTO_MENU_TEXT) != 0) mMenuTextColor = autoColor;
+        if ((mAutoColors & AUTO_BACK_ICON) != 0) mBackIconTint = autoColor;
+        if ((mAutoColors & AUTO_MENU_ICON) != 0) mMenuIconTint = autoColor;
         mTitlePaint.setColor(mTitleColor);
         mSubtitlePaint.setColor(mSubtitleColor);
         mMenuTextPaint.setColor(mMenuTextColor);
     }
 
+    /**
+     * Picks the colors that were not set from what is actually behind the bar, the blurred
+     * background under the overlay, instead of from the overlay color alone.
+     */
+    public void setAdaptiveTextColor(boolean adaptive) {
+        if (mAdaptiveTextColor != adaptive) {
+            mAdaptiveTextColor = adaptive;
+            if (adaptive) refresh();
+        }
+    }
+
+    public boolean isAdaptiveTextColor() {
+        return mAdaptiveTextColor;
+    }
+
+    @Override
+    protected boolean isColorStatsNeeded() {
+        return mAdaptiveTextColor || super.isColorStatsNeeded();
+    }
+
+    @Override
+    protected void onColorStats(BlurColorStats stats) {
+        super.onColorStats(stats);
+        if (!mAdaptiveTextColor || stats.getPixelCount() == 0) return;
+
+        int overlay = getOverlayColor();
+        float overlayAlpha = Color.alpha(overlay) / 255f;
+        float overlayLuminance = (Color.red(overlay) * 0.299f + Color.green(overlay) * 0.587f
+                + Color.blue(overlay) * 0.114f) / 255f;
+        float luminance = overlayLuminance * overlayAlpha + stats.getLuminance() * (1 - overlayAlpha);
+        // Hysteresis, so the text does not flicker over backgrounds close to mid grey
+        boolean dark = luminance < (mDarkBackground ? 0.55f : 0.45f);
+        if (dark != mDarkBackground) {
+            mDarkBackground = dark;
+            applyAutoColors();
+            invalidate();
+        }
+    }
+
     private int adjustAlpha(int color, float factor) {
         int alpha = Math.round(Color.alpha(color) * factor);
         return (color & 0x00FFFFFF) | (alpha << 24);
@@ -331,6 +390,7 @@ public class BlurTitlebarView extends BlurView {
     }
 
     public void setBackIconTint(int color) {
+        mAutoColors &= ~AUTO_BACK_ICON;
         mBackIconTint = color;
         invalidate();
     }
@@ -346,6 +406,7 @@ public class BlurTitlebarView extends BlurView {
     }
 
     public void setMenuIconTint(int color) {
+        mAutoColors &= ~AUTO_MENU_ICON;
         mMenuIconTint = color;
         invalidate();
     }
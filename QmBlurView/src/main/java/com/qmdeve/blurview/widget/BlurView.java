@@ -8,6 +8,8 @@ import android.util.AttributeSet;
 
 import androidx.annotation.NonNull;
 
+import com.qmdeve.blurview.BlurQuality;
+import com.qmdeve.blurview.BlurVibrancy;
 import com.qmdeve.blurview.R;
 import com.qmdeve.blurview.base.BaseBlurView;
 import com.qmdeve.blurview.util.Utils;
@@ -25,6 +27,20 @@ public class BlurView extends BaseBlurView {
         mBlurRadius = a.getDimension(R.styleable.BlurView_blurRadius, Utils.dp2px(getResources(), 25));
         mOverlayColor = a.getColor(R.styleable.BlurView_overlayColor, 0xAAFFFFFF);
         mCornerRadius = a.getDimension(R.styleable.BlurView_cornerRadius, 0);
+        mFrozen = a.getBoolean(R.styleable.BlurView_blurFrozen, false);
+        setMaxBlurRate(a.getFloat(R.styleable.BlurView_maxBlurRate, -1));
+        setCrossfadeEnabled(a.getBoolean(R.styleable.BlurView_blurCrossfade, false));
+        setSupersampleFactor(a.getInt(R.styleable.BlurView_supersampleFactor, 1));
+        setBlurPyramidEnabled(a.getBoolean(R.styleable.BlurView_blurPyramid, false));
+        setFusedOverlayEnabled(a.getBoolean(R.styleable.BlurView_fusedOverlay, false));
+        setFallbackMode(a.getInt(R.styleable.BlurView_blurFallback, FALLBACK_NONE));
+        setVibrancy(new BlurVibrancy(a.getFloat(R.styleable.BlurView_blurSaturation, 1f),
+                a.getFloat(R.styleable.BlurView_blurBrightness, 0f),
+                a.getFloat(R.styleable.BlurView_blurContrast, 1f),
+                a.getInt(R.styleable.BlurView_blurGrain, 0)));
+        if (a.hasValue(R.styleable.BlurView_blurQuality)) {
+            setBlurQuality(BlurQuality.fromAttribute(a.getInt(R.styleable.BlurView_blurQuality, 1)));
+        }
         a.recycle();
     }
 
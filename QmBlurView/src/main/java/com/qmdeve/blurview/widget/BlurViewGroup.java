@@ -3,13 +3,20 @@ package com.qmdeve.blurview.widget;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Outline;
+import android.os.Build;
 import android.util.AttributeSet;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewOutlineProvider;
 
 import androidx.annotation.NonNull;
 
+import com.qmdeve.blurview.BlurColorStats;
+import com.qmdeve.blurview.BlurQuality;
+import com.qmdeve.blurview.BlurVibrancy;
 import com.qmdeve.blurview.base.BaseBlurViewGroup;
+import com.qmdeve.blurview.base.BlurFrame;
 
 public class BlurViewGroup extends ViewGroup {
 
@@ -19,6 +26,16 @@ public class BlurViewGroup extends ViewGroup {
         super(context, attrs);
         setWillNotDraw(false);
         mBaseBlurViewGroup = new BaseBlurViewGroup(context, attrs);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+            // Outlines clip to any path from 13 on, children are then clipped by the renderer
+            setOutlineProvider(new ViewOutlineProvider() {
+                @Override
+                public void getOutline(View view, Outline outline) {
+                    outline.setPath(mBaseBlurViewGroup.getShapePath(view.getWidth(), view.getHeight()));
+                }
+            });
+            setClipToOutline(mBaseBlurViewGroup.getCornerRadius() > 0);
+        }
     }
 
     @Override
@@ -36,12 +53,120 @@ public class BlurViewGroup extends ViewGroup {
 
     public void setCornerRadius(float radius) {
         mBaseBlurViewGroup.setCornerRadius(radius);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+            setClipToOutline(mBaseBlurViewGroup.getCornerRadius() > 0);
+            invalidateOutline();
+        }
+    }
+
+    public void setScrollingContainer(View container) {
+        mBaseBlurViewGroup.setScrollingContainer(container);
+    }
+
+    public void setFrozen(boolean frozen) {
+        mBaseBlurViewGroup.setFrozen(frozen);
+    }
+
+    public boolean isFrozen() {
+        return mBaseBlurViewGroup.isFrozen();
+    }
+
+    public void refresh() {
+        mBaseBlurViewGroup.refresh();
+    }
+
+    public void setMaxBlurRate(float rate) {
+        mBaseBlurViewGroup.setMaxBlurRate(rate);
+    }
+
+    public float getMaxBlurRate() {
+        return mBaseBlurViewGroup.getMaxBlurRate();
+    }
+
+    public void setCrossfadeEnabled(boolean enabled) {
+        mBaseBlurViewGroup.setCrossfadeEnabled(enabled);
+    }
+
+    public boolean isCrossfadeEnabled() {
+        return mBaseBlurViewGroup.isCrossfadeEnabled();
+    }
+
+    public void setAdaptiveQualityEnabled(boolean enabled) {
+        mBaseBlurViewGroup.setAdaptiveQualityEnabled(enabled);
+    }
+
+    public boolean isAdaptiveQualityEnabled() {
+        return mBaseBlurViewGroup.isAdaptiveQualityEnabled();
+    }
+
+    public void setPauseWhenUnfocused(boolean pause) {
+        mBaseBlurViewGroup.setPauseWhenUnfocused(pause);
+    }
+
+    public boolean isPauseWhenUnfocused() {
+        return mBaseBlurViewGroup.isPauseWhenUnfocused();
+    }
+
+    public void setBlurQuality(BlurQuality quality) {
+        mBaseBlurViewGroup.setBlurQuality(quality);
+    }
+
+    public BlurQuality getBlurQuality() {
+        return mBaseBlurViewGroup.getBlurQuality();
+    }
+
+    public void setBlurPyramidEnabled(boolean enabled) {
+        mBaseBlurViewGroup.setBlurPyramidEnabled(enabled);
+    }
+
+    public boolean isBlurPyramidEnabled() {
+        return mBaseBlurViewGroup.isBlurPyramidEnabled();
+    }
+
+    public void setSupersampleFactor(int factor) {
+        mBaseBlurViewGroup.setSupersampleFactor(factor);
+    }
+
+    public int getSupersampleFactor() {
+        return mBaseBlurViewGroup.getSupersampleFactor();
+    }
+
+    public void setFusedOverlayEnabled(boolean enabled) {
+        mBaseBlurViewGroup.setFusedOverlayEnabled(enabled);
+    }
+
+    public boolean isFusedOverlayEnabled() {
+        return mBaseBlurViewGroup.isFusedOverlayEnabled();
+    }
+
+    public void setFallbackMode(int mode) {
+        mBaseBlurViewGroup.setFallbackMode(mode);
+    }
+
+    public int getFallbackMode() {
+        return mBaseBlurViewGroup.getFallbackMode();
+    }
+
+    public void setVibrancy(BlurVibrancy vibrancy) {
+        mBaseBlurViewGroup.setVibrancy(vibrancy);
+    }
+
+    public BlurVibrancy getVibrancy() {
+        return mBaseBlurViewGroup.getVibrancy();
+    }
+
+    public void setOnColorStatsListener(BlurColorStats.Listener listener) {
+        mBaseBlurViewGroup.setOnColorStatsListener(listener);
     }
 
     public Bitmap getBlurredBitmap() {
         return mBaseBlurViewGroup.getBlurredBitmap();
     }
 
+    public BlurFrame acquireBlurFrame() {
+        return mBaseBlurViewGroup.acquireBlurFrame();
+    }
+
     public int getOverlayColor() {
         return mBaseBlurViewGroup.getOverlayColor();
     }
@@ -62,6 +187,24 @@ public class BlurViewGroup extends ViewGroup {
         super.onDetachedFromWindow();
     }
 
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        mBaseBlurViewGroup.onWindowVisibilityChanged(visibility);
+    }
+
+    @Override
+    public void onWindowFocusChanged(boolean hasWindowFocus) {
+        super.onWindowFocusChanged(hasWindowFocus);
+        mBaseBlurViewGroup.onWindowFocusChanged(hasWindowFocus);
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        mBaseBlurViewGroup.onSizeChanged(w, h);
+    }
+
     @Override
     public void draw(@NonNull Canvas canvas) {
         if (!mBaseBlurViewGroup.isRendering()) super.draw(canvas);
@@ -75,7 +218,7 @@ public class BlurViewGroup extends ViewGroup {
             mBaseBlurViewGroup.drawPreviewBackground(canvas, getWidth(), getHeight());
         }
 
-        if (mBaseBlurViewGroup.getCornerRadius() > 0) {
+        if (mBaseBlurViewGroup.getCornerRadius() > 0 && !getClipToOutline()) {
             canvas.save();
             mBaseBlurViewGroup.clipCanvasWithRoundedCorner(canvas, getWidth(), getHeight());
             super.dispatchDraw(canvas);
@@ -0,0 +1,189 @@
+package com.qmdeve.blurview.widget;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.Shader;
+import android.util.AttributeSet;
+
+import androidx.annotation.NonNull;
+
+import com.qmdeve.blurview.util.Utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Blurs several regions of one view, for example a row of frosted pills, with one capture,
+ * one set of buffers and one blur pass. Only the union of the regions is captured and
+ * blurred, so the cost follows the covered area and not the number of regions. Each
+ * region is drawn with its own corner radius and overlay color.
+ * <p>
+ * The view's own corner radius and overlay color are not used, and the overlay can not be
+ * fused into the blur since it differs per region.
+ */
+public class MultiRegionBlurView extends BlurView {
+
+    public static final class Region {
+        private final RectF mBounds;
+        private final float mCornerRadius;
+        private final int mOverlayColor;
+
+        /**
+         * @param bounds       region in view coordinates
+         * @param cornerRadius corner radius in pixels, half the height for a pill
+         * @param overlayColor color drawn over the blurred region
+         */
+        public Region(RectF bounds, float cornerRadius, int overlayColor) {
+            mBounds = new RectF(bounds);
+            mCornerRadius = Math.max(0, cornerRadius);
+            mOverlayColor = overlayColor;
+        }
+
+        public RectF getBounds() {
+            return new RectF(mBounds);
+        }
+
+        public float getCornerRadius() {
+            return mCornerRadius;
+        }
+
+        public int getOverlayColor() {
+            return mOverlayColor;
+        }
+    }
+
+    private final List<Region> mRegions = new ArrayList<>();
+    private final List<Path> mPaths = new ArrayList<>();
+    private final Rect mUnion = new Rect();
+    private final RectF mUnionF = new RectF();
+    private final Paint mBitmapPaint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG);
+    private final Paint mOverlayPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Matrix mMatrix = new Matrix();
+    private Bitmap mShaderBitmap;
+    private BitmapShader mShader;
+    private int mShaderWidth, mShaderHeight;
+
+    public MultiRegionBlurView(Context context) {
+        this(context, null);
+    }
+
+    public MultiRegionBlurView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+    }
+
+    public void setRegions(List<Region> regions) {
+        mRegions.clear();
+        mPaths.clear();
+        if (regions != null) {
+            for (Region region : regions) addRegionInternal(region);
+        }
+        updateFallback();
+        invalidate();
+    }
+
+    public void addRegion(Region region) {
+        addRegionInternal(region);
+        updateFallback();
+        invalidate();
+    }
+
+    public void clearRegions() {
+        setRegions(null);
+    }
+
+    public List<Region> getRegions() {
+        return Collections.unmodifiableList(mRegions);
+    }
+
+    private void addRegionInternal(Region region) {
+        if (region == null) return;
+        Path path = new Path();
+        Utils.roundedRectPath(region.mBounds, region.mCornerRadius, path);
+        mRegions.add(region);
+        mPaths.add(path);
+    }
+
+    /**
+     * Every region hides its blur, or there are none to blur.
+     */
+    @Override
+    protected boolean isOverlayOpaque() {
+        for (Region region : mRegions) {
+            if ((region.mOverlayColor >>> 24) != 0xFF) return false;
+        }
+        return true;
+    }
+
+    @Override
+    protected void computeBlurBounds(Rect outBounds) {
+        mUnionF.setEmpty();
+        for (Region region : mRegions) mUnionF.union(region.mBounds);
+        mUnionF.roundOut(mUnion);
+        if (!mUnion.intersect(0, 0, getWidth(), getHeight())) mUnion.setEmpty();
+        outBounds.set(mUnion);
+    }
+
+    @Override
+    protected void onDraw(@NonNull Canvas canvas) {
+        Bitmap bitmap = isInEditMode() ? null : getBlurredBitmap();
+        boolean blurred = bitmap != null && !mUnion.isEmpty();
+        if (blurred) {
+            if (mShaderBitmap != bitmap || mShaderWidth != bitmap.getWidth()
+                    || mShaderHeight != bitmap.getHeight()) {
+                // Buffers are resized in place while the view animates, the shader has to follow
+                mShaderBitmap = bitmap;
+                mShaderWidth = bitmap.getWidth();
+                mShaderHeight = bitmap.getHeight();
+                mShader = new BitmapShader(bitmap, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP);
+            }
+            // The buffer covers the union of the regions, every region samples its part of it
+            mMatrix.setScale(1f * mUnion.width() / bitmap.getWidth(), 1f * mUnion.height() / bitmap.getHeight());
+            mMatrix.postTranslate(mUnion.left, mUnion.top);
+            mShader.setLocalMatrix(mMatrix);
+            mBitmapPaint.setShader(mShader);
+        }
+
+        boolean solid = getActiveFallback() == FALLBACK_SOLID;
+        for (int i = 0; i < mRegions.size(); i++) {
+            Path path = mPaths.get(i);
+            if (blurred) canvas.drawPath(path, mBitmapPaint);
+            int overlayColor = mRegions.get(i).mOverlayColor;
+            if (solid) overlayColor |= 0xFF000000;
+            if ((overlayColor >>> 24) != 0) {
+                mOverlayPaint.setColor(overlayColor);
+                canvas.drawPath(path, mOverlayPaint);
+            }
+        }
+    }
+
+    @Override
+    public void setBlurPyramidEnabled(boolean enabled) {
+        super.setBlurPyramidEnabled(false);
+    }
+
+    @Override
+    public void setCrossfadeEnabled(boolean enabled) {
+        super.setCrossfadeEnabled(false);
+    }
+
+    @Override
+    public void setFusedOverlayEnabled(boolean enabled) {
+        super.setFusedOverlayEnabled(false);
+    }
+
+    @Override
+    protected void releaseBitmap() {
+        super.releaseBitmap();
+        mShaderBitmap = null;
+        mShader = null;
+        mBitmapPaint.setShader(null);
+    }
+}
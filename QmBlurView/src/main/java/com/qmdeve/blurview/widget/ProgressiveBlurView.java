@@ -7,8 +7,6 @@ import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.LinearGradient;
 import android.graphics.Paint;
-import android.graphics.PorterDuff;
-import android.graphics.PorterDuffXfermode;
 import android.graphics.Rect;
 import android.graphics.Shader;
 import android.util.AttributeSet;
@@ -25,10 +23,15 @@ public class ProgressiveBlurView extends BlurView {
     public static final int DIRECTION_LEFT_TO_RIGHT = 3;
     private final Rect mRectSrc = new Rect(), mRectDst = new Rect();
     private int mGradientDirection = DIRECTION_TOP_TO_BOTTOM;
-    private final Paint mBlendPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-    private final Paint mOverlayPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
     private int mOverlayColor;
     private float mBlurRadius = 25f;
+    private int[] mRadii;
+    private int[] mWeights;
+    private int[] mTints;
+    private float mRadiiScale;
+    private int mRadiiDirection = -1;
+    private final Paint mFallbackPaint = new Paint();
+    private int mFallbackWidth, mFallbackHeight, mFallbackDirection = -1;
 
     public ProgressiveBlurView(Context context) {
         this(context, null);
@@ -54,14 +57,13 @@ public class ProgressiveBlurView extends BlurView {
         }
 
         super.setBlurRadius(mBlurRadius);
-        mBlendPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.DST_IN));
     }
 
     public void setGradientDirection(int direction) {
         if (direction >= DIRECTION_TOP_TO_BOTTOM && direction <= DIRECTION_RIGHT_TO_LEFT) {
             if (mGradientDirection != direction) {
                 mGradientDirection = direction;
-                invalidate();
+                refresh();
             }
         }
     }
@@ -73,48 +75,98 @@ public class ProgressiveBlurView extends BlurView {
             return;
         }
 
-        Bitmap blurredBitmap = getBlurredBitmap();
-        if (blurredBitmap == null) return;
-
         int width = getWidth();
         int height = getHeight();
         if (width == 0 || height == 0) return;
 
-        int saveCount = canvas.saveLayer(0, 0, width, height, null);
+        if (getActiveFallback() != FALLBACK_NONE) {
+            if (getActiveFallback() == FALLBACK_SOLID) drawFallback(canvas, width, height);
+            return;
+        }
+
+        Bitmap blurredBitmap = getBlurredBitmap();
+        if (blurredBitmap == null) return;
 
+        // Radius, intensity and overlay ramps are all baked into the bitmap
         mRectSrc.set(0, 0, blurredBitmap.getWidth(), blurredBitmap.getHeight());
         mRectDst.set(0, 0, width, height);
         canvas.drawBitmap(blurredBitmap, mRectSrc, mRectDst, null);
-        LinearGradient gradient = createIntensityGradient(width, height);
-        mBlendPaint.setShader(gradient);
-        canvas.drawRect(0, 0, width, height, mBlendPaint);
-        LinearGradient overlayGradient = createOverlayGradient(width, height);
-        mOverlayPaint.setShader(overlayGradient);
-        canvas.drawRect(0, 0, width, height, mOverlayPaint);
+    }
 
-        canvas.restoreToCount(saveCount);
+    /**
+     * The overlay ramp at full opacity where it ends, in place of the blur it fades in with.
+     */
+    private void drawFallback(Canvas canvas, int width, int height) {
+        if (mFallbackWidth != width || mFallbackHeight != height || mFallbackDirection != mGradientDirection) {
+            mFallbackWidth = width;
+            mFallbackHeight = height;
+            mFallbackDirection = mGradientDirection;
+            mFallbackPaint.setShader(createOverlayGradient(width, height, mOverlayColor | 0xFF000000));
+        }
+        canvas.drawRect(0, 0, width, height, mFallbackPaint);
     }
 
-    private LinearGradient createIntensityGradient(int width, int height) {
-        int endAlpha = (int) (255 * 1f);
-        int[] colors = new int[]{Color.argb(0, 0, 0, 0), Color.argb(endAlpha, 0, 0, 0)};
-        float[] pos = new float[]{0f, 1f};
+    /**
+     * The ramp starts transparent, it never hides the whole blur.
+     */
+    @Override
+    protected boolean isOverlayOpaque() {
+        return false;
+    }
 
-        switch (mGradientDirection) {
-            case DIRECTION_BOTTOM_TO_TOP:
-                return new LinearGradient(0, height, 0, 0, colors, pos, Shader.TileMode.CLAMP);
-            case DIRECTION_LEFT_TO_RIGHT:
-                return new LinearGradient(0, 0, width, 0, colors, pos, Shader.TileMode.CLAMP);
-            case DIRECTION_RIGHT_TO_LEFT:
-                return new LinearGradient(width, 0, 0, 0, colors, pos, Shader.TileMode.CLAMP);
-            default:
-                return new LinearGradient(0, 0, 0, height, colors, pos, Shader.TileMode.CLAMP);
+    @Override
+    protected boolean hasRadiusMap() {
+        return true;
+    }
+
+    @Override
+    protected void blur(Bitmap input, Bitmap output) {
+        boolean vertical = mGradientDirection != DIRECTION_LEFT_TO_RIGHT
+                && mGradientDirection != DIRECTION_RIGHT_TO_LEFT;
+        updateRamps(vertical ? output.getHeight() : output.getWidth());
+        mBlur.blurVariable(input, output, mRadii, mWeights, mTints, vertical);
+    }
+
+    /**
+     * Fills the per row or column tables: the radius and the intensity grow from 0 where
+     * the gradient starts to full where it ends, and the overlay fades in along with them.
+     * Intensity and overlay are folded into a weight for the blurred pixel and a
+     * premultiplied tint added on top, the same as masking the blur and drawing the
+     * overlay over it.
+     */
+    private void updateRamps(int count) {
+        float radius = getScaledRadius();
+        if (mRadii != null && mRadii.length == count && mRadiiScale == radius
+                && mRadiiDirection == mGradientDirection) {
+            return;
+        }
+
+        if (mRadii == null || mRadii.length != count) {
+            mRadii = new int[count];
+            mWeights = new int[count];
+            mTints = new int[count];
+        }
+        boolean reversed = mGradientDirection == DIRECTION_BOTTOM_TO_TOP
+                || mGradientDirection == DIRECTION_RIGHT_TO_LEFT;
+        int overlayAlpha = Color.alpha(mOverlayColor);
+        for (int i = 0; i < count; i++) {
+            float progress = (i + 0.5f) / count;
+            if (reversed) progress = 1 - progress;
+
+            int tintAlpha = Math.round(overlayAlpha * progress);
+            mRadii[i] = Math.round(progress * radius);
+            mWeights[i] = Math.round(progress * (255 - tintAlpha));
+            mTints[i] = Color.argb(tintAlpha,
+                    Color.red(mOverlayColor) * tintAlpha / 255,
+                    Color.green(mOverlayColor) * tintAlpha / 255,
+                    Color.blue(mOverlayColor) * tintAlpha / 255);
         }
+        mRadiiScale = radius;
+        mRadiiDirection = mGradientDirection;
     }
 
-    private LinearGradient createOverlayGradient(int width, int height) {
-        int transparentColor = mOverlayColor & 0x00FFFFFF;
-        int solidColor = mOverlayColor;
+    private LinearGradient createOverlayGradient(int width, int height, int solidColor) {
+        int transparentColor = solidColor & 0x00FFFFFF;
 
         switch (mGradientDirection) {
             case DIRECTION_BOTTOM_TO_TOP:
@@ -131,7 +183,7 @@ public class ProgressiveBlurView extends BlurView {
     private void drawPreviewProgressiveBackground(Canvas canvas) {
         int width = getWidth(), height = getHeight();
         Paint p = new Paint();
-        LinearGradient g = createOverlayGradient(width, height);
+        LinearGradient g = createOverlayGradient(width, height, mOverlayColor);
         p.setShader(g);
         canvas.drawRect(0, 0, width, height, p);
     }
@@ -145,6 +197,11 @@ public class ProgressiveBlurView extends BlurView {
     public void setOverlayColor(int color) {
     }
 
+    @Override
+    public void setBlurPyramidEnabled(boolean enabled) {
+        super.setBlurPyramidEnabled(false);
+    }
+
     @Override
     public void setBlurRadius(float radius) {
         if (mBlurRadius != radius && radius >= 0) {
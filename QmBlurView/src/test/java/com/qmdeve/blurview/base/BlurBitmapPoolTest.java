@@ -0,0 +1,213 @@
+package com.qmdeve.blurview.base;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.GraphicsMode;
+
+@RunWith(RobolectricTestRunner.class)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class BlurBitmapPoolTest {
+
+    private long mMaxSize;
+
+    @Before
+    public void setUp() {
+        mMaxSize = BlurBitmapPool.getMaxSize();
+        BlurBitmapPool.clear();
+    }
+
+    @After
+    public void tearDown() {
+        BlurBitmapPool.setMaxSize(mMaxSize);
+        BlurBitmapPool.clear();
+    }
+
+    @Test
+    public void smallSizesShareTheFirstBucket() {
+        assertEquals(4096, BlurBitmapPool.bucketSize(0));
+        assertEquals(4096, BlurBitmapPool.bucketSize(1));
+        assertEquals(4096, BlurBitmapPool.bucketSize(4096));
+    }
+
+    @Test
+    public void bucketsAreAQuarterOctaveApart() {
+        assertEquals(5120, BlurBitmapPool.bucketSize(4097));
+        assertEquals(6144, BlurBitmapPool.bucketSize(5121));
+        assertEquals(8192, BlurBitmapPool.bucketSize(8192));
+        assertEquals(10240, BlurBitmapPool.bucketSize(8193));
+        assertEquals(5L << 20, BlurBitmapPool.bucketSize((4L << 20) + 1));
+    }
+
+    @Test
+    public void allocationsServeTheLargestBucketTheyHold() {
+        assertEquals(0, BlurBitmapPool.bucketOf(4095));
+        assertEquals(4096, BlurBitmapPool.bucketOf(4096));
+        assertEquals(4096, BlurBitmapPool.bucketOf(5119));
+        assertEquals(5120, BlurBitmapPool.bucketOf(5120));
+        assertEquals(8192, BlurBitmapPool.bucketOf(10239));
+        assertEquals(10240, BlurBitmapPool.bucketOf(10240));
+    }
+
+    @Test
+    public void bucketSizesAreTheirOwnBucket() {
+        for (long bytes = 1; bytes < 1L << 22; bytes = bytes * 9 / 8 + 1) {
+            long bucket = BlurBitmapPool.bucketSize(bytes);
+            assertTrue(bucket >= bytes);
+            assertEquals(bucket, BlurBitmapPool.bucketSize(bucket));
+            assertEquals(bucket, BlurBitmapPool.bucketOf(bucket));
+        }
+    }
+
+    @Test
+    public void pooledAllocationsFitEveryRequestOfTheirBucket() {
+        for (long request = 1; request < 1L << 22; request = request * 9 / 8 + 1) {
+            long bucket = BlurBitmapPool.bucketSize(request);
+            long next = BlurBitmapPool.bucketSize(bucket + 1);
+            // Any allocation filed under the bucket holds the request
+            assertEquals(bucket, BlurBitmapPool.bucketOf(bucket));
+            assertEquals(bucket, BlurBitmapPool.bucketOf(next - 1));
+            assertTrue(next - 1 >= request);
+            assertTrue("at most a quarter octave per bucket", next - bucket <= Math.max(4096, bucket / 4));
+        }
+    }
+
+    @Test
+    public void newAllocationsFillTheirBucket() {
+        // Mirrors acquire: the height is rounded up so the allocation covers the bucket
+        int[] widths = {16, 90, 135, 270, 360, 540};
+        for (int width : widths) {
+            for (int height = 1; height < 2400; height += 7) {
+                long bucket = BlurBitmapPool.bucketSize(4L * width * height);
+                if (4L * width > bucket / 4) continue;
+                long rows = Math.max(height, (bucket / 4 + width - 1) / width);
+                assertEquals(bucket, BlurBitmapPool.bucketOf(4L * width * rows));
+            }
+        }
+    }
+
+    @Test
+    public void releasedBitmapIsHandedOutAgainCleared() {
+        Bitmap bitmap = BlurBitmapPool.acquire(100, 100);
+        bitmap.eraseColor(Color.RED);
+        BlurBitmapPool.release(bitmap);
+        assertEquals(bitmap.getAllocationByteCount(), BlurBitmapPool.getSize());
+
+        Bitmap reused = BlurBitmapPool.acquire(100, 99);
+        assertSame(bitmap, reused);
+        assertFalse(reused.isRecycled());
+        assertEquals(100, reused.getWidth());
+        assertEquals(99, reused.getHeight());
+        assertEquals(0, reused.getPixel(0, 0));
+        assertEquals(0, BlurBitmapPool.getSize());
+    }
+
+    @Test
+    public void otherBucketsAllocate() {
+        Bitmap bitmap = BlurBitmapPool.acquire(100, 100);
+        BlurBitmapPool.release(bitmap);
+
+        Bitmap other = BlurBitmapPool.acquire(200, 200);
+        assertNotSame(bitmap, other);
+        assertEquals(bitmap.getAllocationByteCount(), BlurBitmapPool.getSize());
+    }
+
+    @Test
+    public void allocationsFitEverySizeOfTheirBucket() {
+        int width = 100;
+        Bitmap bitmap = BlurBitmapPool.acquire(width, 100);
+        long bucket = BlurBitmapPool.bucketSize(4L * width * 100);
+        assertEquals(bucket, BlurBitmapPool.bucketOf(bitmap.getAllocationByteCount()));
+
+        int height = 100;
+        while (BlurBitmapPool.bucketSize(4L * width * (height + 1)) == bucket) height++;
+        BlurBitmapPool.release(bitmap);
+        Bitmap largest = BlurBitmapPool.acquire(width, height);
+        assertSame(bitmap, largest);
+        assertEquals(height, largest.getHeight());
+
+        // One row more is the next bucket, which this allocation is not filed under
+        BlurBitmapPool.release(largest);
+        assertNotSame(bitmap, BlurBitmapPool.acquire(width, height + 1));
+    }
+
+    @Test
+    public void leastRecentlyReleasedIsRecycledFirst() {
+        Bitmap first = BlurBitmapPool.acquire(100, 100);
+        Bitmap second = BlurBitmapPool.acquire(100, 100);
+        Bitmap third = BlurBitmapPool.acquire(100, 100);
+        BlurBitmapPool.setMaxSize(2L * first.getAllocationByteCount());
+
+        BlurBitmapPool.release(first);
+        BlurBitmapPool.release(second);
+        BlurBitmapPool.release(third);
+        assertTrue(first.isRecycled());
+        assertFalse(second.isRecycled());
+        assertFalse(third.isRecycled());
+        assertEquals(2L * first.getAllocationByteCount(), BlurBitmapPool.getSize());
+
+        // Most recently released is handed out first
+        assertSame(third, BlurBitmapPool.acquire(100, 100));
+        assertSame(second, BlurBitmapPool.acquire(100, 100));
+    }
+
+    @Test
+    public void bitmapsThatCanNotBePooledAreRecycled() {
+        Bitmap bitmap = BlurBitmapPool.acquire(100, 100);
+        BlurBitmapPool.setMaxSize(bitmap.getAllocationByteCount() - 1);
+        BlurBitmapPool.release(bitmap);
+        assertTrue(bitmap.isRecycled());
+
+        BlurBitmapPool.setMaxSize(mMaxSize);
+        Bitmap immutable = BlurBitmapPool.acquire(100, 100).copy(Bitmap.Config.ARGB_8888, false);
+        BlurBitmapPool.release(immutable);
+        assertTrue(immutable.isRecycled());
+        assertEquals(0, BlurBitmapPool.getSize());
+    }
+
+    @Test
+    public void shrinkingTheCapTrims() {
+        Bitmap bitmap = BlurBitmapPool.acquire(100, 100);
+        BlurBitmapPool.release(bitmap);
+        BlurBitmapPool.setMaxSize(0);
+        assertTrue(bitmap.isRecycled());
+        assertEquals(0, BlurBitmapPool.getSize());
+    }
+
+    @Test
+    public void bitmapsFitAndResizeUpToTheirAllocation() {
+        Bitmap bitmap = BlurBitmapPool.acquire(100, 100, 8L * 100 * 100);
+        assertTrue(bitmap.getAllocationByteCount() >= 8L * 100 * 100);
+        assertFalse(BlurBitmapPool.fits(null, 1, 1));
+
+        int rows = bitmap.getAllocationByteCount() / (4 * 100);
+        assertTrue(BlurBitmapPool.fits(bitmap, 100, rows));
+        assertFalse(BlurBitmapPool.fits(bitmap, 100, rows + 1));
+
+        BlurBitmapPool.resize(bitmap, 100, rows);
+        assertEquals(100, bitmap.getWidth());
+        assertEquals(rows, bitmap.getHeight());
+        BlurBitmapPool.resize(bitmap, 40, 30);
+        assertEquals(40, bitmap.getWidth());
+        assertEquals(30, bitmap.getHeight());
+    }
+
+    @Test
+    public void shrunkBitmapsAreOversized() {
+        Bitmap bitmap = BlurBitmapPool.acquire(100, 100);
+        assertFalse(BlurBitmapPool.isOversized(bitmap));
+        BlurBitmapPool.resize(bitmap, 50, 50);
+        assertTrue(BlurBitmapPool.isOversized(bitmap));
+    }
+}
@@ -0,0 +1,105 @@
+package com.qmdeve.blurview.base;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * The holder matches buffers by identity, so a null bitmap stands in for the view's
+ * buffer and the tests run without the Android runtime.
+ */
+public class BlurFrameTest {
+
+    private final BlurFrameHolder mHolder = new BlurFrameHolder();
+
+    @Test
+    public void frameCarriesTheBlurMetadata() {
+        BlurFrame frame = mHolder.acquire(null, 7, 4f, 1234);
+        assertEquals(7, frame.getFrameNumber());
+        assertEquals(4f, frame.getScale(), 0f);
+        assertEquals(1234, frame.getTimestamp());
+        assertFalse(frame.isReleased());
+    }
+
+    @Test
+    public void heldFrameSharesTheBuffer() {
+        assertFalse(mHolder.isShared(null));
+        BlurFrame frame = mHolder.acquire(null, 1, 1f, 0);
+        assertTrue(mHolder.isShared(null));
+        assertEquals(2, frame.mBuffer.mRefCount);
+
+        frame.release();
+        assertTrue(frame.isReleased());
+        assertFalse(mHolder.isShared(null));
+        assertEquals(1, frame.mBuffer.mRefCount);
+    }
+
+    @Test
+    public void framesOfTheSameBlurShareOneBuffer() {
+        BlurFrame first = mHolder.acquire(null, 1, 1f, 0);
+        BlurFrame second = mHolder.acquire(null, 1, 1f, 0);
+        assertNotSame(first, second);
+        assertSame(first.mBuffer, second.mBuffer);
+        assertEquals(3, first.mBuffer.mRefCount);
+
+        first.release();
+        assertTrue(mHolder.isShared(null));
+        second.release();
+        assertFalse(mHolder.isShared(null));
+    }
+
+    @Test
+    public void releasingTwiceIsIgnored() {
+        BlurFrame first = mHolder.acquire(null, 1, 1f, 0);
+        BlurFrame second = mHolder.acquire(null, 1, 1f, 0);
+
+        first.release();
+        first.release();
+        first.release();
+        // The second handle still holds the buffer
+        assertEquals(2, second.mBuffer.mRefCount);
+        assertTrue(mHolder.isShared(null));
+    }
+
+    @Test
+    public void detachedBufferBelongsToItsFrames() {
+        BlurFrame frame = mHolder.acquire(null, 1, 1f, 0);
+        assertTrue(mHolder.detach(null));
+        assertEquals(1, frame.mBuffer.mRefCount);
+        assertFalse(mHolder.isShared(null));
+
+        // The last release returns it to the pool
+        frame.release();
+        assertEquals(0, frame.mBuffer.mRefCount);
+        frame.release();
+        frame.mBuffer.release();
+        assertEquals(0, frame.mBuffer.mRefCount);
+    }
+
+    @Test
+    public void unheldBufferIsNotKeptOnDetach() {
+        mHolder.acquire(null, 1, 1f, 0).release();
+        assertFalse(mHolder.detach(null));
+        assertFalse(mHolder.detach(null));
+    }
+
+    @Test
+    public void newBlurStartsANewBuffer() {
+        BlurFrame old = mHolder.acquire(null, 1, 1f, 0);
+        old.release();
+
+        BlurFrame frame = mHolder.acquire(null, 2, 1f, 0);
+        assertNotSame(old.mBuffer, frame.mBuffer);
+        assertEquals(2, frame.getFrameNumber());
+        assertEquals(2, frame.mBuffer.mRefCount);
+        // The old buffer is no longer the view's, releasing it again changes nothing
+        assertEquals(0, old.mBuffer.mRefCount);
+        old.release();
+        assertEquals(0, old.mBuffer.mRefCount);
+        assertEquals(2, frame.mBuffer.mRefCount);
+    }
+}
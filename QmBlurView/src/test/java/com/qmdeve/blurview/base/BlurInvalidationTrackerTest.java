@@ -0,0 +1,199 @@
+package com.qmdeve.blurview.base;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.view.View;
+import android.widget.FrameLayout;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+@RunWith(RobolectricTestRunner.class)
+public class BlurInvalidationTrackerTest {
+
+    private static final class OpaqueView extends View {
+        OpaqueView(Context context) {
+            super(context);
+        }
+
+        @Override
+        public boolean isOpaque() {
+            return true;
+        }
+    }
+
+    private FrameLayout mDecor;
+    private FrameLayout mContainer;
+    private View mSibling;
+    private FrameLayout mHost;
+    private View mHostChild;
+    private View mOuterSibling;
+    private BlurInvalidationTracker mTracker;
+
+    @Before
+    public void setUp() {
+        Context context = RuntimeEnvironment.getApplication();
+        mDecor = new FrameLayout(context);
+        mContainer = new FrameLayout(context);
+        mSibling = new View(context);
+        mHost = new FrameLayout(context);
+        mHostChild = new View(context);
+        mOuterSibling = new View(context);
+
+        mDecor.addView(mContainer);
+        mDecor.addView(mOuterSibling);
+        mContainer.addView(mSibling);
+        mContainer.addView(mHost);
+        mHost.addView(mHostChild);
+
+        mDecor.layout(0, 0, 400, 800);
+        mContainer.layout(0, 0, 400, 800);
+        mOuterSibling.layout(0, 600, 400, 800);
+        mSibling.layout(0, 0, 400, 300);
+        mHost.layout(0, 200, 400, 400);
+        mHostChild.layout(0, 0, 100, 100);
+
+        mTracker = new BlurInvalidationTracker(mDecor);
+    }
+
+    @Test
+    public void signatureIsStable() {
+        assertEquals(mTracker.computeSignature(mHost), mTracker.computeSignature(mHost));
+    }
+
+    private void assertChangesSignature(Runnable change) {
+        long signature = mTracker.computeSignature(mHost);
+        change.run();
+        assertNotEquals(signature, mTracker.computeSignature(mHost));
+    }
+
+    @Test
+    public void siblingPropertyChangesChangeTheSignature() {
+        assertChangesSignature(() -> mSibling.setTranslationY(10));
+        assertChangesSignature(() -> mSibling.setAlpha(0.5f));
+        assertChangesSignature(() -> mSibling.setScaleX(2));
+        assertChangesSignature(() -> mSibling.setRotation(45));
+        assertChangesSignature(() -> mSibling.setVisibility(View.INVISIBLE));
+        assertChangesSignature(() -> mSibling.layout(0, 0, 400, 310));
+    }
+
+    @Test
+    public void siblingsOfAncestorsCount() {
+        assertChangesSignature(() -> mOuterSibling.setTranslationX(5));
+    }
+
+    @Test
+    public void ancestorScrollChangesTheSignature() {
+        assertChangesSignature(() -> mContainer.scrollTo(0, 40));
+    }
+
+    @Test
+    public void hostAndItsChildrenDoNotCount() {
+        long signature = mTracker.computeSignature(mHost);
+        // Changes of the host itself are attributed to the host
+        mHost.setTranslationY(30);
+        mHost.setAlpha(0.5f);
+        mHostChild.setTranslationX(20);
+        mHostChild.setVisibility(View.GONE);
+        mHost.scrollTo(0, 10);
+        assertEquals(signature, mTracker.computeSignature(mHost));
+    }
+
+    @Test
+    public void hostOutsideTheDecorHasNoSignature() {
+        mContainer.removeView(mHost);
+        assertEquals(0, mTracker.computeSignature(mHost));
+    }
+
+    /** Adds an opaque view covering the whole container, drawn after the host. */
+    private View addCover() {
+        View cover = new OpaqueView(RuntimeEnvironment.getApplication());
+        mContainer.addView(cover);
+        cover.layout(0, 0, 400, 800);
+        return cover;
+    }
+
+    @Test
+    public void opaqueSiblingDrawnAboveOccludes() {
+        assertFalse(mTracker.isOccluded(mHost));
+        addCover();
+        assertTrue(mTracker.isOccluded(mHost));
+    }
+
+    @Test
+    public void siblingDrawnBelowDoesNotOcclude() {
+        mContainer.removeView(mHost);
+        addCover();
+        mContainer.addView(mHost);
+        assertFalse(mTracker.isOccluded(mHost));
+    }
+
+    @Test
+    public void elevationDecidesBeforeDrawingOrder() {
+        mContainer.removeView(mHost);
+        View cover = addCover();
+        mContainer.addView(mHost);
+        cover.setElevation(4);
+        assertTrue(mTracker.isOccluded(mHost));
+
+        mHost.setElevation(8);
+        assertFalse(mTracker.isOccluded(mHost));
+    }
+
+    @Test
+    public void elevatedHostIsNotOccludedByLaterSibling() {
+        addCover();
+        mHost.setElevation(4);
+        assertFalse(mTracker.isOccluded(mHost));
+    }
+
+    @Test
+    public void siblingOfAnAncestorOccludes() {
+        View cover = new OpaqueView(RuntimeEnvironment.getApplication());
+        mDecor.addView(cover);
+        cover.layout(0, 0, 400, 800);
+        assertTrue(mTracker.isOccluded(mHost));
+    }
+
+    @Test
+    public void partialOrTranslucentCoverDoesNotOcclude() {
+        View small = addCover();
+        small.layout(0, 0, 100, 100);
+        assertFalse(mTracker.isOccluded(mHost));
+        mContainer.removeView(small);
+
+        View translucent = new View(RuntimeEnvironment.getApplication());
+        mContainer.addView(translucent);
+        translucent.layout(0, 0, 400, 800);
+        assertFalse(mTracker.isOccluded(mHost));
+    }
+
+    @Test
+    public void hiddenOrTransformedCoverDoesNotOcclude() {
+        View cover = addCover();
+        cover.setVisibility(View.INVISIBLE);
+        assertFalse(mTracker.isOccluded(mHost));
+
+        cover.setVisibility(View.VISIBLE);
+        cover.setScaleX(0.5f);
+        assertFalse(mTracker.isOccluded(mHost));
+
+        cover.setScaleX(1);
+        cover.setRotation(10);
+        assertFalse(mTracker.isOccluded(mHost));
+    }
+
+    @Test
+    public void hostOutsideTheDecorIsNotOccluded() {
+        addCover();
+        mDecor.removeView(mContainer);
+        assertFalse(mTracker.isOccluded(mHost));
+    }
+}
@@ -0,0 +1,234 @@
+package com.qmdeve.blurview.base;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+public class BlurMemoryManagerTest {
+
+    private static final long MB = 1024 * 1024;
+
+    /** Holds buffers for a fixed view size, shrinking with the square of the scale like a view does. */
+    private static final class FakeClient implements BlurMemoryManager.Client {
+        final long fullBytes;
+        long bytes;
+        float scale = 1f;
+        int steps;
+        int trims;
+        boolean blurring = true;
+
+        FakeClient(long fullBytes) {
+            this.fullBytes = fullBytes;
+        }
+
+        /** Allocates the buffers for the current scale, as the view does on its next frame. */
+        void allocate() {
+            bytes = (long) (fullBytes / (scale * scale));
+            BlurMemoryManager.onBuffersChanged();
+        }
+
+        @Override
+        public long getBufferBytes() {
+            return bytes;
+        }
+
+        @Override
+        public float getMemoryScale() {
+            return scale;
+        }
+
+        @Override
+        public void setMemoryScale(float scale) {
+            this.scale = scale;
+            steps++;
+            bytes = 0;
+        }
+
+        @Override
+        public void trimIfHidden() {
+            trims++;
+        }
+
+        @Override
+        public boolean isBlurring() {
+            return blurring;
+        }
+    }
+
+    private final ArrayList<FakeClient> mClients = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        for (FakeClient client : mClients) BlurMemoryManager.unregister(client);
+        BlurMemoryManager.setBudget(48 * MB);
+    }
+
+    private FakeClient attach(long fullBytes) {
+        FakeClient client = new FakeClient(fullBytes);
+        mClients.add(client);
+        BlurMemoryManager.register(null, client);
+        client.allocate();
+        return client;
+    }
+
+    /** Lets every client that was stepped reallocate, until nothing changes anymore. */
+    private void settle() {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (FakeClient client : mClients) {
+                if (client.bytes == 0) {
+                    client.allocate();
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    @Test
+    public void withinBudgetNothingIsStepped() {
+        BlurMemoryManager.setBudget(10 * MB);
+        FakeClient a = attach(4 * MB);
+        FakeClient b = attach(4 * MB);
+        assertEquals(8 * MB, BlurMemoryManager.getUsage());
+        assertEquals(0, a.steps + b.steps);
+    }
+
+    @Test
+    public void overBudgetStepsTheLargestClient() {
+        BlurMemoryManager.setBudget(10 * MB);
+        FakeClient small = attach(2 * MB);
+        FakeClient large = attach(9 * MB);
+        assertEquals(1, large.steps);
+        assertEquals(1.25f, large.scale, 0f);
+        assertEquals(0, small.steps);
+    }
+
+    @Test
+    public void waitsForTheStepToShowBeforeTheNext() {
+        BlurMemoryManager.setBudget(4 * MB);
+        FakeClient client = attach(16 * MB);
+        assertEquals(1, client.steps);
+
+        // Other buffer changes before the client reallocated do not step it again
+        BlurMemoryManager.onBuffersChanged();
+        BlurMemoryManager.onBuffersChanged();
+        assertEquals(1, client.steps);
+
+        client.allocate();
+        assertEquals(2, client.steps);
+    }
+
+    @Test
+    public void stepsUntilWithinBudget() {
+        BlurMemoryManager.setBudget(6 * MB);
+        FakeClient client = attach(16 * MB);
+        settle();
+        assertTrue(BlurMemoryManager.getUsage() <= 6 * MB);
+        // Bytes shrink with the square of the scale, 1.25^3 is the first to fit 16 MB into 6 MB
+        assertEquals(3, client.steps);
+        assertEquals(1.25f * 1.25f * 1.25f, client.scale, 1e-4f);
+    }
+
+    @Test
+    public void neverStepsPastTheMaxScale() {
+        BlurMemoryManager.setBudget(MB);
+        FakeClient client = attach(64 * MB);
+        settle();
+        assertEquals(4f, client.scale, 0f);
+        int steps = client.steps;
+
+        BlurMemoryManager.onBuffersChanged();
+        assertEquals(steps, client.steps);
+    }
+
+    @Test
+    public void stepsBackOnceWellBelowBudget() {
+        BlurMemoryManager.setBudget(6 * MB);
+        FakeClient client = attach(8 * MB);
+        settle();
+        assertTrue(client.scale > 1f);
+
+        BlurMemoryManager.setBudget(64 * MB);
+        settle();
+        assertEquals(1f, client.scale, 0f);
+        assertEquals(8 * MB, BlurMemoryManager.getUsage());
+    }
+
+    @Test
+    public void doesNotStepBackWhileNearTheBudget() {
+        BlurMemoryManager.setBudget(6 * MB);
+        FakeClient client = attach(8 * MB);
+        settle();
+        float scale = client.scale;
+        int steps = client.steps;
+
+        // Usage is now above half of the budget, stepping back would only oscillate
+        BlurMemoryManager.setBudget(8 * MB);
+        settle();
+        assertEquals(scale, client.scale, 0f);
+        assertEquals(steps, client.steps);
+    }
+
+    @Test
+    public void releasedClientsAreNotSteppedBack() {
+        BlurMemoryManager.setBudget(6 * MB);
+        FakeClient client = attach(8 * MB);
+        settle();
+        float scale = client.scale;
+
+        client.bytes = 0;
+        BlurMemoryManager.setBudget(64 * MB);
+        assertEquals(scale, client.scale, 0f);
+    }
+
+    @Test
+    public void unregisteringThePendingClientUnblocksOthers() {
+        BlurMemoryManager.setBudget(10 * MB);
+        FakeClient small = attach(6 * MB);
+        FakeClient large = attach(8 * MB);
+        assertEquals(1, large.steps);
+
+        mClients.remove(large);
+        BlurMemoryManager.unregister(large);
+        attach(6 * MB);
+        assertEquals(1, small.steps);
+    }
+
+    @Test
+    public void clientThatStopsBlurringIsNotWaitedFor() {
+        BlurMemoryManager.setBudget(10 * MB);
+        FakeClient hidden = attach(11 * MB);
+        assertEquals(1, hidden.steps);
+
+        // Hidden before it reallocated, it holds nothing until it is shown again
+        hidden.blurring = false;
+        FakeClient other = attach(12 * MB);
+        assertEquals(1, other.steps);
+        assertEquals(1, hidden.steps);
+    }
+
+    @Test
+    public void noBudgetTakesAllStepsBack() {
+        BlurMemoryManager.setBudget(4 * MB);
+        FakeClient client = attach(8 * MB);
+        settle();
+
+        BlurMemoryManager.setBudget(0);
+        settle();
+        assertEquals(1f, client.scale, 0f);
+    }
+
+    @Test
+    public void trimMemoryTrimsHiddenClients() {
+        FakeClient a = attach(MB);
+        FakeClient b = attach(MB);
+        BlurMemoryManager.trimMemory();
+        assertEquals(1, a.trims);
+        assertEquals(1, b.trims);
+    }
+}
@@ -0,0 +1,171 @@
+package com.qmdeve.blurview.base;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BlurPowerPolicyTest {
+
+    private static final class FakeStateProvider implements BlurPowerMonitor.StateProvider {
+        int thermalStatus;
+        boolean powerSaveMode;
+        Runnable onChanged;
+        int starts;
+        int stops;
+
+        void set(int thermalStatus, boolean powerSaveMode) {
+            this.thermalStatus = thermalStatus;
+            this.powerSaveMode = powerSaveMode;
+            if (onChanged != null) onChanged.run();
+        }
+
+        @Override
+        public int getThermalStatus() {
+            return thermalStatus;
+        }
+
+        @Override
+        public boolean isPowerSaveMode() {
+            return powerSaveMode;
+        }
+
+        @Override
+        public void start(Runnable onChanged) {
+            this.onChanged = onChanged;
+            starts++;
+        }
+
+        @Override
+        public void stop() {
+            onChanged = null;
+            stops++;
+        }
+    }
+
+    private final BlurPowerPolicy mPolicy = new BlurPowerPolicy();
+    private final FakeStateProvider mProvider = new FakeStateProvider();
+    private int mChanges;
+    private final BlurPowerMonitor.Listener mListener = () -> mChanges++;
+
+    @Before
+    public void setUp() {
+        BlurPowerMonitor.setStateProvider(mProvider);
+    }
+
+    @After
+    public void tearDown() {
+        BlurPowerMonitor.unregister(mListener);
+        BlurPowerMonitor.setStateProvider(null);
+        BlurPowerMonitor.setPolicy(null);
+        BlurPowerMonitor.setEnabled(true);
+    }
+
+    @Test
+    public void coolDeviceIsNotThrottled() {
+        assertSame(BlurPowerPolicy.Throttle.NONE, mPolicy.getThrottle(0, false));
+    }
+
+    @Test
+    public void throttlesMoreAsTheDeviceHeatsUp() {
+        BlurPowerPolicy.Throttle light = mPolicy.getThrottle(BlurPowerPolicy.THERMAL_STATUS_LIGHT, false);
+        assertEquals(new BlurPowerPolicy.Throttle(1f, 30, false), light);
+
+        BlurPowerPolicy.Throttle moderate = mPolicy.getThrottle(BlurPowerPolicy.THERMAL_STATUS_MODERATE, false);
+        assertEquals(new BlurPowerPolicy.Throttle(1.5f, 20, false), moderate);
+
+        BlurPowerPolicy.Throttle severe = mPolicy.getThrottle(BlurPowerPolicy.THERMAL_STATUS_SEVERE, false);
+        assertTrue(severe.freeze);
+        // Critical, emergency and shutdown are at least as severe
+        assertEquals(severe, mPolicy.getThrottle(6, false));
+    }
+
+    @Test
+    public void powerSaveCombinesWithThermal() {
+        assertEquals(new BlurPowerPolicy.Throttle(1.25f, 30, false), mPolicy.getThrottle(0, true));
+        assertEquals(new BlurPowerPolicy.Throttle(1.5f, 20, false),
+                mPolicy.getThrottle(BlurPowerPolicy.THERMAL_STATUS_MODERATE, true));
+        assertEquals(new BlurPowerPolicy.Throttle(1.25f, 30, false),
+                mPolicy.getThrottle(BlurPowerPolicy.THERMAL_STATUS_LIGHT, true));
+    }
+
+    @Test
+    public void combineKeepsTheStricterOfEach() {
+        BlurPowerPolicy.Throttle combined = BlurPowerPolicy.combine(
+                new BlurPowerPolicy.Throttle(2f, 0, false), new BlurPowerPolicy.Throttle(1f, 24, true));
+        assertEquals(new BlurPowerPolicy.Throttle(2f, 24, true), combined);
+    }
+
+    @Test
+    public void throttleClampsItsValues() {
+        BlurPowerPolicy.Throttle throttle = new BlurPowerPolicy.Throttle(0.5f, -1, false);
+        assertEquals(1f, throttle.downsampleScale, 0f);
+        assertEquals(0f, throttle.maxRate, 0f);
+    }
+
+    @Test
+    public void monitorFollowsTheProvider() {
+        BlurPowerMonitor.register(null, mListener);
+        assertEquals(1, mProvider.starts);
+        assertSame(BlurPowerPolicy.Throttle.NONE, BlurPowerMonitor.getThrottle());
+
+        mProvider.set(BlurPowerPolicy.THERMAL_STATUS_MODERATE, false);
+        assertEquals(1, mChanges);
+        assertEquals(mPolicy.getThrottle(BlurPowerPolicy.THERMAL_STATUS_MODERATE, false),
+                BlurPowerMonitor.getThrottle());
+
+        // Same throttle, listeners are not bothered
+        mProvider.set(BlurPowerPolicy.THERMAL_STATUS_MODERATE, false);
+        assertEquals(1, mChanges);
+
+        mProvider.set(0, false);
+        assertEquals(2, mChanges);
+        assertSame(BlurPowerPolicy.Throttle.NONE, BlurPowerMonitor.getThrottle());
+    }
+
+    @Test
+    public void monitorStopsTheProviderWithTheLastListener() {
+        BlurPowerMonitor.register(null, mListener);
+        BlurPowerMonitor.unregister(mListener);
+        assertEquals(1, mProvider.stops);
+
+        mProvider.set(BlurPowerPolicy.THERMAL_STATUS_SEVERE, false);
+        assertEquals(0, mChanges);
+    }
+
+    @Test
+    public void monitorAppliesTheInstalledPolicy() {
+        BlurPowerPolicy.Throttle custom = new BlurPowerPolicy.Throttle(3f, 10, false);
+        BlurPowerMonitor.setPolicy(new BlurPowerPolicy() {
+            @Override
+            public Throttle getThrottle(int thermalStatus, boolean powerSaveMode) {
+                return powerSaveMode ? custom : Throttle.NONE;
+            }
+        });
+        BlurPowerMonitor.register(null, mListener);
+
+        mProvider.set(BlurPowerPolicy.THERMAL_STATUS_SEVERE, false);
+        assertSame(BlurPowerPolicy.Throttle.NONE, BlurPowerMonitor.getThrottle());
+
+        mProvider.set(0, true);
+        assertSame(custom, BlurPowerMonitor.getThrottle());
+    }
+
+    @Test
+    public void disablingLiftsTheThrottle() {
+        BlurPowerMonitor.register(null, mListener);
+        mProvider.set(BlurPowerPolicy.THERMAL_STATUS_SEVERE, true);
+        assertTrue(BlurPowerMonitor.getThrottle().freeze);
+
+        BlurPowerMonitor.setEnabled(false);
+        assertFalse(BlurPowerMonitor.getThrottle().freeze);
+        assertSame(BlurPowerPolicy.Throttle.NONE, BlurPowerMonitor.getThrottle());
+
+        BlurPowerMonitor.setEnabled(true);
+        assertTrue(BlurPowerMonitor.getThrottle().freeze);
+    }
+}
@@ -0,0 +1,128 @@
+package com.qmdeve.blurview.base;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class BlurQualityGovernorTest {
+
+    private static final long WINDOW_MS = 500;
+
+    private BlurQualityGovernor mGovernor;
+    private long mNow;
+
+    @Before
+    public void setUp() {
+        mGovernor = new BlurQualityGovernor();
+        mGovernor.setRefreshRate(60);
+        mNow = 1000;
+        mGovernor.report(0, mNow);
+    }
+
+    /** Reports one full window in which blurring took the given share of the UI thread. */
+    private void window(float load) {
+        mNow += WINDOW_MS;
+        mGovernor.report((long) (load * WINDOW_MS * 1000000L), mNow);
+    }
+
+    private void stepTo(int level) {
+        while (mGovernor.getLevel() < level) window(0.5f);
+    }
+
+    @Test
+    public void startsAtFullQuality() {
+        assertEquals(0, mGovernor.getLevel());
+        assertEquals(1f, mGovernor.getDownsampleScale(), 0f);
+        assertEquals(1f, mGovernor.getRadiusScale(), 0f);
+        assertEquals(0f, mGovernor.getMaxRate(), 0f);
+    }
+
+    @Test
+    public void waitsForTheWindowToEnd() {
+        mNow += WINDOW_MS - 1;
+        mGovernor.report(WINDOW_MS * 1000000L, mNow);
+        assertEquals(0, mGovernor.getLevel());
+
+        mNow += 1;
+        mGovernor.report(0, mNow);
+        assertEquals(1, mGovernor.getLevel());
+    }
+
+    @Test
+    public void stepsUpOneLevelPerWindowOverBudget() {
+        window(0.3f);
+        assertEquals(1, mGovernor.getLevel());
+        assertEquals(1.25f, mGovernor.getDownsampleScale(), 0f);
+
+        window(0.3f);
+        assertEquals(2, mGovernor.getLevel());
+        assertEquals(1.5f, mGovernor.getDownsampleScale(), 0f);
+    }
+
+    @Test
+    public void lowersRateBeforeRadius() {
+        stepTo(3);
+        assertEquals(30f, mGovernor.getMaxRate(), 0f);
+        assertEquals(1f, mGovernor.getRadiusScale(), 0f);
+
+        stepTo(4);
+        assertEquals(2f, mGovernor.getDownsampleScale(), 0f);
+        assertEquals(0.8f, mGovernor.getRadiusScale(), 0f);
+    }
+
+    @Test
+    public void staysAtTheLastLevel() {
+        stepTo(4);
+        window(1f);
+        assertEquals(4, mGovernor.getLevel());
+    }
+
+    @Test
+    public void stepsBackAfterTwoWindowsWithHeadroom() {
+        stepTo(1);
+        // 1.5625 times the work at level 0, still within 70% of the budget
+        window(0.1f);
+        assertEquals(1, mGovernor.getLevel());
+        window(0.1f);
+        assertEquals(0, mGovernor.getLevel());
+    }
+
+    @Test
+    public void staysWhenThePreviousLevelWouldNotFit() {
+        stepTo(1);
+        // Within budget, but 1.5625 times of it is over 70% of the budget
+        window(0.15f);
+        window(0.15f);
+        window(0.15f);
+        assertEquals(1, mGovernor.getLevel());
+    }
+
+    @Test
+    public void goodWindowsHaveToFollowEachOther() {
+        stepTo(1);
+        window(0.1f);
+        window(0.15f);
+        window(0.1f);
+        assertEquals(1, mGovernor.getLevel());
+        window(0.1f);
+        assertEquals(0, mGovernor.getLevel());
+    }
+
+    @Test
+    public void accountsForTheRateLimitWhenSteppingBack() {
+        stepTo(3);
+        // Level 2 blurs every frame instead of 30 times a second: twice the work at 60 Hz
+        window(0.08f);
+        window(0.08f);
+        assertEquals(2, mGovernor.getLevel());
+
+        setUp();
+        mGovernor.setRefreshRate(120);
+        stepTo(3);
+        // and four times at 120 Hz
+        window(0.08f);
+        window(0.08f);
+        assertEquals(3, mGovernor.getLevel());
+    }
+}
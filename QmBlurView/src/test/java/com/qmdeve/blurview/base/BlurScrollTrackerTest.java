@@ -0,0 +1,73 @@
+package com.qmdeve.blurview.base;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class BlurScrollTrackerTest {
+
+    private final BlurScrollTracker mTracker = new BlurScrollTracker();
+
+    @Test
+    public void roundingErrorStaysBelowHalfAPixel() {
+        float scale = 0.37f;
+        int[] moves = {1, 2, 1, 3, -1, 1, 1, -2, 2, 1};
+        int scrolled = 0;
+        int shifted = 0;
+        for (int i = 0; i < 200; i++) {
+            int dy = moves[i % moves.length];
+            assertTrue(mTracker.computeShift(0, dy, scale, scale, 100, 100));
+            mTracker.commit(0, dy);
+            scrolled += dy;
+            shifted += mTracker.getShiftY();
+            assertEquals(0, mTracker.getShiftX());
+            assertEquals(scrolled * scale, shifted, 0.5f + 1e-4f);
+        }
+    }
+
+    @Test
+    public void smallMovesAddUpToAShift() {
+        // A quarter pixel per move, the second one rounds up and the next two carry it back
+        int[] expected = {0, 1, 0, 0, 0, 1, 0, 0};
+        for (int shift : expected) {
+            assertTrue(mTracker.computeShift(1, 0, 0.25f, 0.25f, 100, 100));
+            assertEquals(shift, mTracker.getShiftX());
+            mTracker.commit(1, 0);
+        }
+    }
+
+    @Test
+    public void uncommittedMovesAreNotCarriedOver() {
+        assertTrue(mTracker.computeShift(0, 1, 0.5f, 0.5f, 100, 100));
+        assertEquals(1, mTracker.getShiftY());
+        assertTrue(mTracker.computeShift(0, 1, 0.5f, 0.5f, 100, 100));
+        assertEquals(1, mTracker.getShiftY());
+
+        mTracker.commit(0, 1);
+        assertTrue(mTracker.computeShift(0, 1, 0.5f, 0.5f, 100, 100));
+        assertEquals(0, mTracker.getShiftY());
+    }
+
+    @Test
+    public void movesAlongBothAxesOrNoneAreRejected() {
+        assertFalse(mTracker.computeShift(3, 4, 1f, 1f, 100, 100));
+        assertFalse(mTracker.computeShift(0, 0, 1f, 1f, 100, 100));
+    }
+
+    @Test
+    public void shiftsOfHalfTheBufferOrMoreAreRejected() {
+        assertTrue(mTracker.computeShift(0, 49, 1f, 1f, 100, 100));
+        assertFalse(mTracker.computeShift(0, 50, 1f, 1f, 100, 100));
+        assertFalse(mTracker.computeShift(0, -50, 1f, 1f, 100, 100));
+        assertTrue(mTracker.computeShift(-39, 0, 1f, 1f, 80, 100));
+        assertFalse(mTracker.computeShift(-40, 0, 1f, 1f, 80, 100));
+        // Measured in buffer pixels, after the scale
+        assertTrue(mTracker.computeShift(0, 97, 0.5f, 0.5f, 100, 100));
+        assertFalse(mTracker.computeShift(0, 97, 0.5f, 0.5f, 100, 97));
+    }
+}
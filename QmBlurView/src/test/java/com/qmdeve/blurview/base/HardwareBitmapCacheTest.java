@@ -0,0 +1,104 @@
+package com.qmdeve.blurview.base;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import android.graphics.Bitmap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.GraphicsMode;
+
+/**
+ * Software bitmaps stand in for hardware ones, the cache only copies them.
+ */
+@RunWith(RobolectricTestRunner.class)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class HardwareBitmapCacheTest {
+
+    private static final int COPY_BYTES = 100 * 100 * 4;
+
+    private long mMaxSize;
+
+    @Before
+    public void setUp() {
+        mMaxSize = HardwareBitmapCache.getMaxSize();
+        HardwareBitmapCache.clear();
+    }
+
+    @After
+    public void tearDown() {
+        HardwareBitmapCache.setMaxSize(mMaxSize);
+        HardwareBitmapCache.clear();
+    }
+
+    private static Bitmap source() {
+        return Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888);
+    }
+
+    @Test
+    public void sameSourceIsCopiedOnce() {
+        Bitmap source = source();
+        Bitmap copy = HardwareBitmapCache.getSoftwareCopy(source);
+        assertNotNull(copy);
+        assertNotSame(source, copy);
+        assertEquals(Bitmap.Config.ARGB_8888, copy.getConfig());
+        assertSame(copy, HardwareBitmapCache.getSoftwareCopy(source));
+        assertEquals(COPY_BYTES, HardwareBitmapCache.getSize());
+    }
+
+    @Test
+    public void leastRecentlyUsedIsDroppedFirst() {
+        HardwareBitmapCache.setMaxSize(2 * COPY_BYTES);
+        Bitmap first = source();
+        Bitmap second = source();
+        Bitmap firstCopy = HardwareBitmapCache.getSoftwareCopy(first);
+        Bitmap secondCopy = HardwareBitmapCache.getSoftwareCopy(second);
+
+        // Using the first again makes the second the least recently used
+        HardwareBitmapCache.getSoftwareCopy(first);
+        HardwareBitmapCache.getSoftwareCopy(source());
+        assertEquals(2 * COPY_BYTES, HardwareBitmapCache.getSize());
+        assertSame(firstCopy, HardwareBitmapCache.getSoftwareCopy(first));
+
+        // Views may still show a dropped copy
+        assertFalse(secondCopy.isRecycled());
+        assertNotSame(secondCopy, HardwareBitmapCache.getSoftwareCopy(second));
+    }
+
+    @Test
+    public void copiesOverTheCapAreNotKept() {
+        HardwareBitmapCache.setMaxSize(COPY_BYTES - 1);
+        Bitmap source = source();
+        Bitmap copy = HardwareBitmapCache.getSoftwareCopy(source);
+        assertNotNull(copy);
+        assertEquals(0, HardwareBitmapCache.getSize());
+        assertNotSame(copy, HardwareBitmapCache.getSoftwareCopy(source));
+    }
+
+    @Test
+    public void recycledSourcesAreDropped() {
+        Bitmap source = source();
+        HardwareBitmapCache.getSoftwareCopy(source);
+        source.recycle();
+
+        HardwareBitmapCache.getSoftwareCopy(source());
+        assertEquals(COPY_BYTES, HardwareBitmapCache.getSize());
+    }
+
+    @Test
+    public void clearDropsAllCopies() {
+        Bitmap source = source();
+        Bitmap copy = HardwareBitmapCache.getSoftwareCopy(source);
+        HardwareBitmapCache.clear();
+        assertEquals(0, HardwareBitmapCache.getSize());
+        assertFalse(copy.isRecycled());
+        assertNotSame(copy, HardwareBitmapCache.getSoftwareCopy(source));
+    }
+}
@@ -0,0 +1,103 @@
+package com.qmdeve.blurview.base;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.ColorDrawable;
+import android.graphics.drawable.Drawable;
+import android.widget.FrameLayout;
+import android.widget.ImageView;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+/**
+ * Hardware bitmaps can not be created here, software bitmaps stand in for the source and
+ * its copy. The scanner has no clients, so restore() treats every view as no longer
+ * captured.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class HardwareBitmapScannerTest {
+
+    private ImageView mView;
+    private Bitmap mSource;
+    private Bitmap mCopy;
+    private HardwareBitmapScanner mScanner;
+
+    @Before
+    public void setUp() {
+        Context context = RuntimeEnvironment.getApplication();
+        FrameLayout decor = new FrameLayout(context);
+        mView = new ImageView(context);
+        decor.addView(mView);
+        mSource = Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888);
+        mCopy = Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888);
+        mScanner = new HardwareBitmapScanner(decor);
+    }
+
+    private static Bitmap bitmapOf(Drawable drawable) {
+        assertTrue(drawable instanceof BitmapDrawable);
+        return ((BitmapDrawable) drawable).getBitmap();
+    }
+
+    @Test
+    public void convertingLeavesTheOriginalDrawableAlone() {
+        mView.setImageBitmap(mSource);
+        Drawable original = mView.getDrawable();
+
+        mScanner.convert(mView, mCopy);
+        assertNotSame(original, mView.getDrawable());
+        assertSame(mCopy, bitmapOf(mView.getDrawable()));
+        assertSame(mSource, bitmapOf(original));
+    }
+
+    @Test
+    public void restoresTheOriginalDrawable() {
+        mView.setImageBitmap(mSource);
+        Drawable original = mView.getDrawable();
+
+        mScanner.convert(mView, mCopy);
+        mScanner.restore();
+        assertSame(original, mView.getDrawable());
+        assertSame(mSource, bitmapOf(mView.getDrawable()));
+    }
+
+    @Test
+    public void keepsADrawableTheAppSetMeanwhile() {
+        mView.setImageBitmap(mSource);
+        mScanner.convert(mView, mCopy);
+
+        Drawable set = new ColorDrawable(0xFF00FF00);
+        mView.setImageDrawable(set);
+        mScanner.restore();
+        assertSame(set, mView.getDrawable());
+    }
+
+    @Test
+    public void keepsABitmapTheAppSetMeanwhile() {
+        mView.setImageBitmap(mSource);
+        mScanner.convert(mView, mCopy);
+
+        Bitmap set = Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888);
+        mView.setImageBitmap(set);
+        mScanner.restore();
+        assertSame(set, bitmapOf(mView.getDrawable()));
+    }
+
+    @Test
+    public void recycledOriginalIsNotRestored() {
+        mView.setImageBitmap(mSource);
+        mScanner.convert(mView, mCopy);
+
+        mSource.recycle();
+        mScanner.restore();
+        assertSame(mCopy, bitmapOf(mView.getDrawable()));
+    }
+}